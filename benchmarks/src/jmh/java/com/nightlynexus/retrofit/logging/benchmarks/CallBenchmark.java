@@ -0,0 +1,115 @@
+package com.nightlynexus.retrofit.logging.benchmarks;
+
+import com.nightlynexus.retrofit.logging.FakeCallFactory;
+import com.nightlynexus.retrofit.logging.LoggingCallAdapterFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+
+/**
+ * Measures the per-call overhead of {@link LoggingCallAdapterFactory} against a bare Retrofit
+ * instance, for successful responses, error responses, and failures. Calls complete immediately on
+ * a {@linkplain FakeCallFactory fake call factory}. The build enables the GC profiler, so results
+ * include the bytes allocated per operation ({@code gc.alloc.rate.norm}).
+ * Run with {@code ./gradlew :benchmarks:jmh -Pjmh.includes=CallBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CallBenchmark {
+  interface Service {
+    @GET("users/{id}") Call<Void> get();
+  }
+
+  @Param({"bare", "logging", "logging-async"})
+  public String retrofit;
+
+  @Param({"SUCCESS", "ERROR", "FAILURE"})
+  public FakeCallFactory.Outcome outcome;
+
+  Service service;
+  LoggingCallAdapterFactory factory;
+
+  @Setup public void setUp() {
+    Retrofit.Builder builder = new Retrofit.Builder()
+        .baseUrl("https://example.com/")
+        .callFactory(new FakeCallFactory(outcome,
+            "{\"error\":\"Something went wrong.\"}".getBytes(StandardCharsets.UTF_8)));
+    switch (retrofit) {
+      case "bare":
+        break;
+      case "logging":
+        factory = new LoggingCallAdapterFactory(new CountingLogger());
+        builder.addCallAdapterFactory(factory);
+        break;
+      case "logging-async":
+        factory = new LoggingCallAdapterFactory.Builder(new CountingLogger())
+            .async(1024, 1)
+            .build();
+        builder.addCallAdapterFactory(factory);
+        break;
+      default:
+        throw new IllegalArgumentException(retrofit);
+    }
+    service = builder.build().create(Service.class);
+  }
+
+  @TearDown public void tearDown() {
+    if (factory != null) {
+      factory.close();
+    }
+  }
+
+  @Benchmark public void execute(Blackhole blackhole) {
+    try {
+      blackhole.consume(service.get().execute());
+    } catch (IOException e) {
+      blackhole.consume(e);
+    }
+  }
+
+  @Benchmark public void enqueue(Blackhole blackhole) {
+    service.get().enqueue(new Callback<Void>() {
+      @Override public void onResponse(Call<Void> call, Response<Void> response) {
+        blackhole.consume(response);
+      }
+
+      @Override public void onFailure(Call<Void> call, Throwable t) {
+        blackhole.consume(t);
+      }
+    });
+  }
+
+  static final class CountingLogger implements LoggingCallAdapterFactory.Logger {
+    long count;
+
+    @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+      count++;
+    }
+
+    @Override public <T> void onFailure(Call<T> call, Throwable t) {
+      count++;
+    }
+  }
+}
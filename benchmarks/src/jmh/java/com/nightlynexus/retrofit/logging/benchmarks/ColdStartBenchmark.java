@@ -0,0 +1,129 @@
+package com.nightlynexus.retrofit.logging.benchmarks;
+
+import com.nightlynexus.retrofit.logging.FakeCallFactory;
+import com.nightlynexus.retrofit.logging.LoggingCallAdapterFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import okio.BufferedSource;
+import okio.Okio;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import retrofit2.Call;
+import retrofit2.Retrofit;
+
+/**
+ * Measures the first argument lookup of a service in a new JVM, with the parameters read from the
+ * table that {@code logging-processor} generated, or found by reflection. Each fork measures one
+ * lookup, so the results include class loading and interpreted code, as at startup.
+ * <p>The build runs the processor, so {@link ColdStartService} has a table. The reflection lookups
+ * load the service in a class loader that hides it. The call's request is built before measuring,
+ * so Retrofit has already parsed the service method's annotations, as it does before any call.
+ * Run with {@code ./gradlew :benchmarks:jmh -Pjmh.includes=ColdStartBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(20)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class ColdStartBenchmark {
+  static final String TABLE_SUFFIX = "_LoggingEndpoints";
+
+  @Param({"generated", "reflection"})
+  public String parameters;
+
+  LoggingCallAdapterFactory factory;
+  Call<?> call;
+
+  @Setup public void setUp() throws ReflectiveOperationException {
+    boolean hideTable;
+    switch (parameters) {
+      case "generated":
+        hideTable = false;
+        // Checked without loading the table, which would load its superclass before measuring.
+        String table = ColdStartService.class.getName().replace('.', '/') + TABLE_SUFFIX + ".class";
+        if (ColdStartBenchmark.class.getClassLoader().getResource(table) == null) {
+          throw new IllegalStateException("logging-processor did not run.");
+        }
+        break;
+      case "reflection":
+        hideTable = true;
+        break;
+      default:
+        throw new IllegalArgumentException(parameters);
+    }
+    Class<?> service =
+        new ServiceClassLoader(hideTable).loadClass(ColdStartService.class.getName());
+    factory = new LoggingCallAdapterFactory(new CallBenchmark.CountingLogger());
+    Object instance = new Retrofit.Builder()
+        .baseUrl("https://example.com/")
+        .callFactory(new FakeCallFactory(FakeCallFactory.Outcome.SUCCESS, new byte[0]))
+        .addCallAdapterFactory(factory)
+        .build()
+        .create(service);
+    Method search = service.getMethod("search", String.class, String.class, int.class,
+        String.class);
+    call = (Call<?>) search.invoke(instance, "retrofit", "stars", 2, "token");
+    call.request();
+  }
+
+  @TearDown public void tearDown() {
+    factory.close();
+  }
+
+  @Benchmark public Object queryArgument() {
+    return LoggingCallAdapterFactory.queryArgument(call, "page");
+  }
+
+  /**
+   * Defines the service and its table, unless it is hidden, so they are loaded by the benchmark,
+   * not by JMH or an earlier benchmark in the fork.
+   */
+  static final class ServiceClassLoader extends ClassLoader {
+    final boolean hideTable;
+
+    ServiceClassLoader(boolean hideTable) {
+      super(ColdStartBenchmark.class.getClassLoader());
+      this.hideTable = hideTable;
+    }
+
+    @Override protected Class<?> loadClass(String name, boolean resolve)
+        throws ClassNotFoundException {
+      // The table's name starts with the service's name.
+      if (!name.startsWith(ColdStartService.class.getName())) {
+        return super.loadClass(name, resolve);
+      }
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> loaded = findLoadedClass(name);
+        if (loaded != null) {
+          return loaded;
+        }
+        if (hideTable && name.endsWith(TABLE_SUFFIX)) {
+          throw new ClassNotFoundException(name);
+        }
+        InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+        if (in == null) {
+          throw new ClassNotFoundException(name);
+        }
+        try (BufferedSource source = Okio.buffer(Okio.source(in))) {
+          byte[] bytes = source.readByteArray();
+          return defineClass(name, bytes, 0, bytes.length);
+        } catch (IOException e) {
+          throw new ClassNotFoundException(name, e);
+        }
+      }
+    }
+  }
+}
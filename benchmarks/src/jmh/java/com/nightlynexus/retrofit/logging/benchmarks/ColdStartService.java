@@ -0,0 +1,28 @@
+package com.nightlynexus.retrofit.logging.benchmarks;
+
+import okhttp3.RequestBody;
+import retrofit2.Call;
+import retrofit2.http.Body;
+import retrofit2.http.DELETE;
+import retrofit2.http.GET;
+import retrofit2.http.Header;
+import retrofit2.http.POST;
+import retrofit2.http.Path;
+import retrofit2.http.Query;
+
+/**
+ * The service of {@link ColdStartBenchmark}. Top level, so a class loader can define it without its
+ * enclosing class.
+ */
+public interface ColdStartService {
+  @GET("users/{id}") Call<Void> user(@Path("id") String id);
+
+  @GET("search") Call<Void> search(@Query("q") String q, @Query("sort") String sort,
+      @Query("page") int page, @Header("Authorization") String authorization);
+
+  @POST("users/{id}/repos") Call<Void> createRepo(@Path("id") String id, @Body RequestBody body,
+      @Header("Authorization") String authorization);
+
+  @DELETE("repos/{owner}/{repo}") Call<Void> deleteRepo(@Path("owner") String owner,
+      @Path("repo") String repo, @Header("Authorization") String authorization);
+}
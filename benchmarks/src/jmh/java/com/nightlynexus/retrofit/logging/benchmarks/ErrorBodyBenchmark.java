@@ -0,0 +1,108 @@
+package com.nightlynexus.retrofit.logging.benchmarks;
+
+import com.nightlynexus.retrofit.logging.LoggingCallAdapterFactory;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link LoggingCallAdapterFactory#errorMessage} and
+ * {@link LoggingCallAdapterFactory#isPlaintext} by body size and content.
+ * <p>{@code errorMessage} consumes its body, so its benchmarks get a new {@link Body} before each
+ * invocation. That setup is not measured, but it makes the results of the smallest bodies noisier.
+ * The {@code isPlaintext} benchmarks do not use that state, so they run without per-invocation
+ * setup, which would distort their nanosecond timings.
+ * Run with {@code ./gradlew :benchmarks:jmh -Pjmh.includes=ErrorBodyBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ErrorBodyBenchmark {
+  static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+  static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+  static final long BYTE_LIMIT = 4096;
+
+  @Param({"0", "1024", "65536", "10485760"})
+  public int size;
+
+  @Param({"ascii", "utf8", "binary"})
+  public String content;
+
+  ByteString bytes;
+  MediaType contentType;
+  Buffer buffer;
+
+  @Setup public void setUp() throws IOException {
+    Buffer content = new Buffer();
+    switch (this.content) {
+      case "ascii":
+        contentType = JSON;
+        while (content.size() < size) {
+          content.writeUtf8("{\"id\":12345,\"name\":\"Logging Retrofit\",\"tags\":[\"http\"]}");
+        }
+        break;
+      case "utf8":
+        contentType = JSON;
+        while (content.size() < size) {
+          content.writeUtf8("{\"name\":\"\u00e9t\u00e9 \u65e5\u672c\u8a9e \u20ac\"}");
+        }
+        break;
+      case "binary":
+        contentType = OCTET_STREAM;
+        byte[] random = new byte[size];
+        new Random(0).nextBytes(random);
+        content.write(random);
+        break;
+      default:
+        throw new IllegalArgumentException(this.content);
+    }
+    // Multi-byte sequences may straddle the cut, as they do in truncated bodies.
+    bytes = content.readByteString(Math.min(size, content.size()));
+    buffer = new Buffer().write(bytes);
+  }
+
+  /** A fresh error body for each invocation of the {@code errorMessage} benchmarks. */
+  @State(Scope.Thread)
+  public static class Body {
+    ResponseBody body;
+
+    @Setup(Level.Invocation) public void setUp(ErrorBodyBenchmark benchmark) {
+      body = ResponseBody.create(benchmark.bytes, benchmark.contentType);
+    }
+  }
+
+  @Benchmark public String errorMessage(Body body) throws IOException {
+    return LoggingCallAdapterFactory.errorMessage(body.body);
+  }
+
+  @Benchmark public Object errorMessageBounded(Body body) throws IOException {
+    return LoggingCallAdapterFactory.errorMessage(body.body, BYTE_LIMIT);
+  }
+
+  @Benchmark public boolean isPlaintextBuffer() {
+    return LoggingCallAdapterFactory.isPlaintext(buffer);
+  }
+
+  @Benchmark public boolean isPlaintextByteString() {
+    return LoggingCallAdapterFactory.isPlaintext(bytes);
+  }
+}
@@ -0,0 +1,82 @@
+package com.nightlynexus.retrofit.logging.benchmarks;
+
+import com.nightlynexus.retrofit.logging.LoggingCallAdapterFactory;
+import java.io.EOFException;
+import java.util.concurrent.TimeUnit;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link LoggingCallAdapterFactory#isPlaintext(Buffer)} with the previous implementation,
+ * which copied the sample into a new buffer before decoding it.
+ * Run with {@code ./gradlew :benchmarks:jmh -Pjmh.includes=IsPlaintextBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IsPlaintextBenchmark {
+  @Param({"ascii", "utf8", "binary"})
+  public String content;
+
+  Buffer buffer;
+
+  @Setup public void setUp() {
+    buffer = new Buffer();
+    switch (content) {
+      case "ascii":
+        buffer.writeUtf8(
+            "{\"id\":12345,\"name\":\"Logging Retrofit\",\"tags\":[\"http\",\"json\"]}");
+        break;
+      case "utf8":
+        buffer.writeUtf8("{\"name\":\"\u00e9t\u00e9 \u65e5\u672c\u8a9e \u20ac\",\"ok\":true}");
+        break;
+      case "binary":
+        buffer.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0});
+        break;
+      default:
+        throw new IllegalArgumentException(content);
+    }
+  }
+
+  @Benchmark public boolean inPlace() {
+    return LoggingCallAdapterFactory.isPlaintext(buffer);
+  }
+
+  @Benchmark public boolean copying() {
+    return copyingIsPlaintext(buffer);
+  }
+
+  /** The implementation before plaintext detection inspected the buffer in place. */
+  static boolean copyingIsPlaintext(Buffer buffer) {
+    try {
+      Buffer prefix = new Buffer();
+      long byteCount = buffer.size() < 64 ? buffer.size() : 64;
+      buffer.copyTo(prefix, 0, byteCount);
+      for (int i = 0; i < 16; i++) {
+        if (prefix.exhausted()) {
+          break;
+        }
+        int codePoint = prefix.readUtf8CodePoint();
+        if (Character.isISOControl(codePoint) && !Character.isWhitespace(codePoint)) {
+          return false;
+        }
+      }
+      return true;
+    } catch (EOFException e) {
+      return false; // Truncated UTF-8 sequence.
+    }
+  }
+}
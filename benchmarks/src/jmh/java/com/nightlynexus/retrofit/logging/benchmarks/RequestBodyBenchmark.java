@@ -0,0 +1,104 @@
+package com.nightlynexus.retrofit.logging.benchmarks;
+
+import com.nightlynexus.retrofit.logging.FakeCallFactory;
+import com.nightlynexus.retrofit.logging.LoggingCallAdapterFactory;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import retrofit2.Call;
+import retrofit2.Retrofit;
+import retrofit2.http.Body;
+import retrofit2.http.GET;
+import retrofit2.http.POST;
+import retrofit2.http.Query;
+
+/**
+ * Measures {@link LoggingCallAdapterFactory#requestBody} and the argument lookups by the service
+ * method's arity. The call's request is built once, so only the lookups are measured.
+ * Run with {@code ./gradlew :benchmarks:jmh -Pjmh.includes=RequestBodyBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RequestBodyBenchmark {
+  interface Service {
+    @GET("zero") Call<Void> zero();
+
+    @POST("one") Call<Void> one(@Body RequestBody body);
+
+    @POST("four") Call<Void> four(@Body RequestBody body, @Query("a") String a,
+        @Query("b") String b, @Query("c") String c);
+
+    @POST("eight") Call<Void> eight(@Body RequestBody body, @Query("a") String a,
+        @Query("b") String b, @Query("c") String c, @Query("d") String d, @Query("e") String e,
+        @Query("f") String f, @Query("g") String g);
+  }
+
+  @Param({"0", "1", "4", "8"})
+  public int arity;
+
+  LoggingCallAdapterFactory factory;
+  Call<Void> call;
+  /** The last query parameter, so lookups scan every query parameter. */
+  String lastQuery;
+
+  @Setup public void setUp() {
+    factory = new LoggingCallAdapterFactory(new CallBenchmark.CountingLogger());
+    Service service = new Retrofit.Builder()
+        .baseUrl("https://example.com/")
+        .callFactory(new FakeCallFactory(FakeCallFactory.Outcome.SUCCESS, new byte[0]))
+        .addCallAdapterFactory(factory)
+        .build()
+        .create(Service.class);
+    RequestBody body = RequestBody.create("{}", MediaType.get("application/json"));
+    switch (arity) {
+      case 0:
+        call = service.zero();
+        lastQuery = "a";
+        break;
+      case 1:
+        call = service.one(body);
+        lastQuery = "a";
+        break;
+      case 4:
+        call = service.four(body, "a", "b", "c");
+        lastQuery = "c";
+        break;
+      case 8:
+        call = service.eight(body, "a", "b", "c", "d", "e", "f", "g");
+        lastQuery = "g";
+        break;
+      default:
+        throw new IllegalArgumentException(Integer.toString(arity));
+    }
+    // Build the request and resolve the service method's parameters before measuring.
+    LoggingCallAdapterFactory.requestBody(call);
+  }
+
+  @TearDown public void tearDown() {
+    factory.close();
+  }
+
+  @Benchmark public Object requestBody() {
+    return LoggingCallAdapterFactory.requestBody(call);
+  }
+
+  @Benchmark public Object queryArgument() {
+    return LoggingCallAdapterFactory.queryArgument(call, lastQuery);
+  }
+}
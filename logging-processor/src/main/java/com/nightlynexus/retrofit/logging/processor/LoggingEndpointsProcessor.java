@@ -0,0 +1,259 @@
+package com.nightlynexus.retrofit.logging.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@code GeneratedEndpoints} table for each Retrofit service interface, so
+ * {@code LoggingCallAdapterFactory} can find service method parameters without reflecting on their
+ * annotations.
+ * <p>Each table is generated from its service interface alone, which is the table's originating
+ * element, so the processor is registered with Gradle as isolating.
+ */
+public final class LoggingEndpointsProcessor extends AbstractProcessor {
+  static final String SUFFIX = "_LoggingEndpoints";
+  static final String GENERATED_ENDPOINTS =
+      "com.nightlynexus.retrofit.logging.GeneratedEndpoints";
+  static final List<String> HTTP_METHOD_ANNOTATIONS = Arrays.asList(
+      "retrofit2.http.GET",
+      "retrofit2.http.POST",
+      "retrofit2.http.PUT",
+      "retrofit2.http.DELETE",
+      "retrofit2.http.PATCH",
+      "retrofit2.http.HEAD",
+      "retrofit2.http.OPTIONS",
+      "retrofit2.http.HTTP");
+
+  private final Set<String> generated = new LinkedHashSet<>();
+  private Elements elements;
+  private Types types;
+  private Filer filer;
+  private Messager messager;
+
+  @Override public synchronized void init(ProcessingEnvironment processingEnv) {
+    super.init(processingEnv);
+    elements = processingEnv.getElementUtils();
+    types = processingEnv.getTypeUtils();
+    filer = processingEnv.getFiler();
+    messager = processingEnv.getMessager();
+  }
+
+  @Override public Set<String> getSupportedAnnotationTypes() {
+    return new LinkedHashSet<>(HTTP_METHOD_ANNOTATIONS);
+  }
+
+  @Override public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    Map<TypeElement, List<ExecutableElement>> services = new LinkedHashMap<>();
+    for (TypeElement annotation : annotations) {
+      for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        if (element.getKind() != ElementKind.METHOD
+            || element.getEnclosingElement().getKind() != ElementKind.INTERFACE) {
+          continue;
+        }
+        TypeElement service = (TypeElement) element.getEnclosingElement();
+        List<ExecutableElement> methods = services.get(service);
+        if (methods == null) {
+          methods = new ArrayList<>();
+          services.put(service, methods);
+        }
+        methods.add((ExecutableElement) element);
+      }
+    }
+    for (Map.Entry<TypeElement, List<ExecutableElement>> entry : services.entrySet()) {
+      TypeElement service = entry.getKey();
+      String tableName = tableName(service);
+      if (!generated.add(tableName)) {
+        continue;
+      }
+      try {
+        writeTable(service, tableName, entry.getValue());
+      } catch (IOException e) {
+        messager.printMessage(Diagnostic.Kind.ERROR,
+            "Unable to write " + tableName + ": " + e.getMessage(), service);
+      }
+    }
+    // Other processors may also want Retrofit's annotations.
+    return false;
+  }
+
+  /** Matches {@code GeneratedEndpoints.tableName}. */
+  private String tableName(TypeElement service) {
+    String binaryName = elements.getBinaryName(service).toString();
+    int packageEnd = binaryName.lastIndexOf('.') + 1;
+    return binaryName.substring(0, packageEnd)
+        + binaryName.substring(packageEnd).replace('$', '_')
+        + SUFFIX;
+  }
+
+  private void writeTable(TypeElement service, String tableName, List<ExecutableElement> methods)
+      throws IOException {
+    PackageElement packageElement = elements.getPackageOf(service);
+    String packageName = packageElement.getQualifiedName().toString();
+    String simpleName = tableName.substring(tableName.lastIndexOf('.') + 1);
+
+    StringBuilder source = new StringBuilder()
+        .append("// Generated by the logging-retrofit annotation processor. Do not edit.\n");
+    if (!packageElement.isUnnamed()) {
+      source.append("package ").append(packageName).append(";\n\n");
+    }
+    source.append("public final class ").append(simpleName)
+        .append(" extends ").append(GENERATED_ENDPOINTS).append(" {\n")
+        .append("  public ").append(simpleName).append("() {\n");
+    for (ExecutableElement method : methods) {
+      appendMethod(source, method);
+    }
+    source.append("  }\n")
+        .append("}\n");
+
+    try (Writer writer = filer.createSourceFile(tableName, service).openWriter()) {
+      writer.write(source.toString());
+    }
+  }
+
+  private void appendMethod(StringBuilder source, ExecutableElement method) {
+    StringBuilder key = new StringBuilder(method.getSimpleName()).append('(');
+    int bodyIndex = -1;
+    List<String> pathNames = new ArrayList<>();
+    List<Integer> pathIndices = new ArrayList<>();
+    List<String> queryNames = new ArrayList<>();
+    List<Integer> queryIndices = new ArrayList<>();
+    List<String> headerNames = new ArrayList<>();
+    List<Integer> headerIndices = new ArrayList<>();
+    List<? extends VariableElement> parameters = method.getParameters();
+    for (int i = 0; i < parameters.size(); i++) {
+      VariableElement parameter = parameters.get(i);
+      if (i != 0) {
+        key.append(',');
+      }
+      key.append(typeName(parameter.asType()));
+      for (AnnotationMirror annotation : parameter.getAnnotationMirrors()) {
+        String annotationName =
+            ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName()
+                .toString();
+        switch (annotationName) {
+          case "retrofit2.http.Body":
+            bodyIndex = i;
+            break;
+          case "retrofit2.http.Path":
+            pathNames.add(value(annotation));
+            pathIndices.add(i);
+            break;
+          case "retrofit2.http.Query":
+            queryNames.add(value(annotation));
+            queryIndices.add(i);
+            break;
+          case "retrofit2.http.Header":
+            headerNames.add(value(annotation));
+            headerIndices.add(i);
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    key.append(')');
+
+    source.append("    method(").append(stringLiteral(key.toString())).append(", ")
+        .append(bodyIndex).append(",\n");
+    appendTable(source, pathNames, pathIndices);
+    source.append(",\n");
+    appendTable(source, queryNames, queryIndices);
+    source.append(",\n");
+    appendTable(source, headerNames, headerIndices);
+    source.append(");\n");
+  }
+
+  private static void appendTable(StringBuilder source, List<String> names,
+      List<Integer> indices) {
+    source.append("        new String[] {");
+    for (int i = 0; i < names.size(); i++) {
+      source.append(i == 0 ? "" : ", ").append(stringLiteral(names.get(i)));
+    }
+    source.append("}, new int[] {");
+    for (int i = 0; i < indices.size(); i++) {
+      source.append(i == 0 ? "" : ", ").append(indices.get(i));
+    }
+    source.append('}');
+  }
+
+  /** Matches {@link Class#getTypeName()} of the erased type. */
+  private String typeName(TypeMirror type) {
+    TypeMirror erased = types.erasure(type);
+    switch (erased.getKind()) {
+      case ARRAY:
+        return typeName(((ArrayType) erased).getComponentType()) + "[]";
+      case DECLARED:
+        TypeElement element = (TypeElement) ((DeclaredType) erased).asElement();
+        return elements.getBinaryName(element).toString();
+      default:
+        return erased.toString();
+    }
+  }
+
+  private static String value(AnnotationMirror annotation) {
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+        : annotation.getElementValues().entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals("value")) {
+        return (String) entry.getValue().getValue();
+      }
+    }
+    throw new IllegalStateException("Missing value: " + annotation);
+  }
+
+  private static String stringLiteral(String value) {
+    StringBuilder literal = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          literal.append("\\\"");
+          break;
+        case '\\':
+          literal.append("\\\\");
+          break;
+        case '\n':
+          literal.append("\\n");
+          break;
+        default:
+          if (c < 0x20 || c > 0x7e) {
+            literal.append(String.format("\\u%04x", (int) c));
+          } else {
+            literal.append(c);
+          }
+      }
+    }
+    return literal.append('"').toString();
+  }
+}
@@ -0,0 +1,130 @@
+package com.nightlynexus.retrofit.logging;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import com.nightlynexus.retrofit.logging.processor.LoggingEndpointsProcessor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import javax.tools.JavaFileObject;
+import okio.BufferedSource;
+import okio.Okio;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import retrofit2.Call;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+
+/**
+ * Loads the classes of a compiled service interface, to check that the factory reads the
+ * parameters from the generated table when it exists. In the logging package to see the
+ * parameters that the factory resolved.
+ */
+@RunWith(JUnit4.class)
+public final class GeneratedEndpointsTest {
+  static final JavaFileObject SERVICE = JavaFileObjects.forSourceLines("test.Service",
+      "package test;",
+      "",
+      "import retrofit2.Call;",
+      "import retrofit2.http.GET;",
+      "import retrofit2.http.Header;",
+      "import retrofit2.http.Path;",
+      "import retrofit2.http.Query;",
+      "",
+      "public interface Service {",
+      "  @GET(\"/{a}\") Call<Void> get(@Path(\"a\") String a, @Query(\"q\") int q,",
+      "      @Header(\"h\") String h);",
+      "}");
+
+  @Test public void factoryReadsGeneratedTable() throws Exception {
+    Compilation compilation = javac()
+        .withProcessors(new LoggingEndpointsProcessor())
+        .compile(SERVICE);
+    assertThat(compilation).succeeded();
+    Class<?> service = new CompilationClassLoader(compilation).loadClass("test.Service");
+    Method get = service.getMethod("get", String.class, int.class, String.class);
+
+    Endpoint.Parameters generated = GeneratedEndpoints.parameters(get);
+    assertThat(generated).isNotNull();
+    Call<?> call = call(service, get);
+    assertThat(LoggingCallAdapterFactory.pathArgument(call, "a")).isEqualTo("x");
+    assertThat(LoggingCallAdapterFactory.queryArgument(call, "q")).isEqualTo(1);
+    assertThat(LoggingCallAdapterFactory.headerArgument(call, "h")).isEqualTo("y");
+    // Reflection creates new arrays, so sharing the table's arrays shows that the table was used.
+    Endpoint.Parameters parameters = LoggingCallAdapterFactory.endpoint(call).parameters(get);
+    assertThat(parameters.pathNames).isSameInstanceAs(generated.pathNames);
+    assertThat(parameters.queryNames).isSameInstanceAs(generated.queryNames);
+    assertThat(parameters.headerNames).isSameInstanceAs(generated.headerNames);
+  }
+
+  @Test public void factoryReflectsWithoutGeneratedTable() throws Exception {
+    // Keeps javac from finding the processor on the classpath.
+    Compilation compilation = javac().withOptions("-proc:none").compile(SERVICE);
+    assertThat(compilation).succeeded();
+    Class<?> service = new CompilationClassLoader(compilation).loadClass("test.Service");
+    Method get = service.getMethod("get", String.class, int.class, String.class);
+
+    assertThat(GeneratedEndpoints.parameters(get)).isNull();
+    Call<?> call = call(service, get);
+    assertThat(LoggingCallAdapterFactory.pathArgument(call, "a")).isEqualTo("x");
+    assertThat(LoggingCallAdapterFactory.queryArgument(call, "q")).isEqualTo(1);
+    assertThat(LoggingCallAdapterFactory.headerArgument(call, "h")).isEqualTo("y");
+  }
+
+  @Test public void processorIsIsolatingForGradle() throws IOException {
+    InputStream registration = LoggingEndpointsProcessor.class.getClassLoader()
+        .getResourceAsStream("META-INF/gradle/incremental.annotation.processors");
+    assertThat(registration).isNotNull();
+    try (BufferedSource source = Okio.buffer(Okio.source(registration))) {
+      assertThat(source.readUtf8()).isEqualTo(
+          LoggingEndpointsProcessor.class.getName() + ",isolating\n");
+    }
+  }
+
+  private static Call<?> call(Class<?> service, Method get) throws Exception {
+    Object instance = new Retrofit.Builder()
+        .baseUrl("https://example.com/")
+        .addCallAdapterFactory(
+            new LoggingCallAdapterFactory(new LoggingCallAdapterFactory.Logger() {
+              @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+              }
+
+              @Override public <T> void onFailure(Call<T> call, Throwable t) {
+              }
+            }))
+        .build()
+        .create(service);
+    return (Call<?>) get.invoke(instance, "x", 1, "y");
+  }
+
+  /** Loads the classes that the compilation wrote, like the service's generated table. */
+  static final class CompilationClassLoader extends ClassLoader {
+    final Compilation compilation;
+
+    CompilationClassLoader(Compilation compilation) {
+      super(GeneratedEndpointsTest.class.getClassLoader());
+      this.compilation = compilation;
+    }
+
+    @Override protected Class<?> findClass(String name) throws ClassNotFoundException {
+      String path = "/" + name.replace('.', '/') + JavaFileObject.Kind.CLASS.extension;
+      for (JavaFileObject file : compilation.generatedFiles()) {
+        if (file.getKind() != JavaFileObject.Kind.CLASS || !file.toUri().getPath().endsWith(path)) {
+          continue;
+        }
+        try (BufferedSource source = Okio.buffer(Okio.source(file.openInputStream()))) {
+          byte[] bytes = source.readByteArray();
+          return defineClass(name, bytes, 0, bytes.length);
+        } catch (IOException e) {
+          throw new ClassNotFoundException(name, e);
+        }
+      }
+      throw new ClassNotFoundException(name);
+    }
+  }
+}
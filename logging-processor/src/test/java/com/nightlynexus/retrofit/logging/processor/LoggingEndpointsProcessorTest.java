@@ -0,0 +1,73 @@
+package com.nightlynexus.retrofit.logging.processor;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+
+@RunWith(JUnit4.class)
+public final class LoggingEndpointsProcessorTest {
+  @Test public void generatesParameterTable() {
+    JavaFileObject service = JavaFileObjects.forSourceLines("test.Service",
+        "package test;",
+        "",
+        "import retrofit2.Call;",
+        "import retrofit2.http.Body;",
+        "import retrofit2.http.GET;",
+        "import retrofit2.http.Header;",
+        "import retrofit2.http.POST;",
+        "import retrofit2.http.Path;",
+        "import retrofit2.http.Query;",
+        "",
+        "interface Service {",
+        "  @GET(\"/{a}\") Call<Void> get(@Path(\"a\") String a, @Query(\"q\") int q,",
+        "      @Header(\"h\") String[] h);",
+        "",
+        "  @POST(\"/\") Call<Void> post(@Body java.util.List<String> body);",
+        "}");
+    Compilation compilation = javac()
+        .withProcessors(new LoggingEndpointsProcessor())
+        .compile(service);
+    assertThat(compilation).succeeded();
+    assertThat(compilation).generatedSourceFile("test.Service_LoggingEndpoints")
+        .contentsAsUtf8String()
+        .contains(""
+            + "    method(\"get(java.lang.String,int,java.lang.String[])\", -1,\n"
+            + "        new String[] {\"a\"}, new int[] {0},\n"
+            + "        new String[] {\"q\"}, new int[] {1},\n"
+            + "        new String[] {\"h\"}, new int[] {2});\n");
+    assertThat(compilation).generatedSourceFile("test.Service_LoggingEndpoints")
+        .contentsAsUtf8String()
+        .contains(""
+            + "    method(\"post(java.util.List)\", 0,\n"
+            + "        new String[] {}, new int[] {},\n"
+            + "        new String[] {}, new int[] {},\n"
+            + "        new String[] {}, new int[] {});\n");
+  }
+
+  @Test public void namesNestedInterfaceTables() {
+    JavaFileObject service = JavaFileObjects.forSourceLines("test.Outer",
+        "package test;",
+        "",
+        "import retrofit2.Call;",
+        "import retrofit2.http.GET;",
+        "",
+        "final class Outer {",
+        "  interface Service {",
+        "    @GET(\"/\") Call<Void> get();",
+        "  }",
+        "}");
+    Compilation compilation = javac()
+        .withProcessors(new LoggingEndpointsProcessor())
+        .compile(service);
+    assertThat(compilation).succeeded();
+    assertThat(compilation).generatedSourceFile("test.Outer_Service_LoggingEndpoints")
+        .contentsAsUtf8String()
+        .contains("    method(\"get()\", -1,\n");
+  }
+}
@@ -0,0 +1,119 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adjusts the endpoints' sample rates every window so the calls given to the logger stay near a
+ * budget of events per second.
+ * <p>Errors and slow calls are logged regardless of the sample, so the events they took in the last
+ * window are set aside from the budget first. Then the rest is shared out like water filling
+ * containers: endpoints with fewer calls than an equal share are sampled entirely, and the rest of
+ * the budget is split evenly among the busier endpoints. So rare endpoints are not starved by busy
+ * ones, and an outage does not push the logged events far past the budget.
+ * <p>Calls count toward their endpoint's window without locking or allocating. The first call
+ * after a window ends computes the next rates.
+ */
+final class AdaptiveSampler {
+  static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+  static final int CHUNK_BITS = 6;
+  static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  final double eventsPerSecond;
+  private final Object registerLock = new Object();
+  private volatile Endpoint[] endpoints = new Endpoint[0];
+  /** The calls of each endpoint in the current window, indexed by sampling index. */
+  private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+  /** The logged calls in the current window that were not sampled. */
+  private final LongAdder alwaysLogged = new LongAdder();
+  private final ReentrantLock windowLock = new ReentrantLock();
+  private volatile long windowStart = System.nanoTime();
+  private volatile long windowEnd = windowStart + WINDOW_NANOS;
+  /** Guarded by the window lock. */
+  private long[] windowCounts = new long[0];
+
+  AdaptiveSampler(double eventsPerSecond) {
+    this.eventsPerSecond = eventsPerSecond;
+  }
+
+  void register(Endpoint endpoint) {
+    synchronized (registerLock) {
+      int index = endpoints.length;
+      if ((index >>> CHUNK_BITS) == chunks.length) {
+        AtomicLongArray[] chunks = Arrays.copyOf(this.chunks, this.chunks.length + 1);
+        chunks[chunks.length - 1] = new AtomicLongArray(CHUNK_SIZE);
+        this.chunks = chunks;
+      }
+      endpoint.samplingIndex = index;
+      Endpoint[] endpoints = Arrays.copyOf(this.endpoints, index + 1);
+      endpoints[index] = endpoint;
+      this.endpoints = endpoints;
+    }
+  }
+
+  /** Counts a call starting at {@code nanos}, and adjusts the sample rates if a window ended. */
+  void onStart(Endpoint endpoint, long nanos) {
+    int index = endpoint.samplingIndex;
+    chunks[index >>> CHUNK_BITS].incrementAndGet(index & CHUNK_MASK);
+    if (nanos - windowEnd >= 0 && windowLock.tryLock()) {
+      try {
+        long windowStart = this.windowStart;
+        if (nanos - windowEnd >= 0) {
+          adjust(nanos - windowStart);
+          this.windowStart = nanos;
+          windowEnd = nanos + WINDOW_NANOS;
+        }
+      } finally {
+        windowLock.unlock();
+      }
+    }
+  }
+
+  /** Counts a logged call that was logged regardless of the sample, like an error. */
+  void onAlwaysLogged() {
+    alwaysLogged.increment();
+  }
+
+  /** Sets the sample rates from the calls of the window that lasted {@code elapsedNanos}. */
+  private void adjust(long elapsedNanos) {
+    Endpoint[] endpoints = this.endpoints;
+    AtomicLongArray[] chunks = this.chunks;
+    int count = endpoints.length;
+    if (windowCounts.length < count) {
+      windowCounts = new long[Math.max(count, windowCounts.length * 2)];
+    }
+    long[] windowCounts = this.windowCounts;
+    for (int i = 0; i < count; i++) {
+      windowCounts[i] = chunks[i >>> CHUNK_BITS].getAndSet(i & CHUNK_MASK, 0);
+    }
+    double budget =
+        Math.max(0, eventsPerSecond * elapsedNanos / 1e9 - alwaysLogged.sumThenReset());
+    double level = level(windowCounts, count, budget);
+    for (int i = 0; i < count; i++) {
+      long calls = windowCounts[i];
+      endpoints[i].sampleRate = calls <= level ? 1 : level / calls;
+    }
+  }
+
+  /**
+   * Returns the most calls each endpoint may log so that the logged calls sum to the budget.
+   * Endpoints with fewer calls log all of them. Returns infinity if the budget covers every call.
+   */
+  static double level(long[] counts, int count, double budget) {
+    long[] sorted = Arrays.copyOf(counts, count);
+    Arrays.sort(sorted);
+    double remaining = budget;
+    for (int i = 0; i < count; i++) {
+      double share = remaining / (count - i);
+      if (sorted[i] > share) {
+        return share;
+      }
+      remaining -= sorted[i];
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+}
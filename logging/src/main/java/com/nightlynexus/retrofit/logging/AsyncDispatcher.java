@@ -0,0 +1,371 @@
+package com.nightlynexus.retrofit.logging;
+
+import com.nightlynexus.retrofit.logging.EventRing.CallEvent;
+import com.nightlynexus.retrofit.logging.LoggingCallAdapterFactory.LoggingCall;
+import com.nightlynexus.retrofit.logging.LoggingCallAdapterFactory.Logger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Hands call events to a bounded ring that is drained by dedicated consumer threads, so the
+ * threads completing calls never wait on the {@link Logger}.
+ * <p>Producers fill the ring's pre-allocated slots in place. The consumers build the objects the
+ * logger needs, keeping allocations off the threads completing calls. A consumer swaps the event
+ * it takes for an empty one before logging it, so a slow logger does not hold a slot, and the ring
+ * only fills with events that are waiting.
+ * <p>The consumers also run the factory's reports to the logger, like the summaries of suppressed
+ * events, and check whether the periodic reports are due, so none of them run on the threads
+ * completing calls.
+ */
+final class AsyncDispatcher {
+  static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+  static final long CLOSE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+  /** How long blocked consumers wait before checking whether the periodic reports are due. */
+  static final long REPORT_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  final LoggingCallAdapterFactory factory;
+  final Logger logger;
+  final EventRing ring;
+  final WaitStrategy waitStrategy;
+  final OverflowPolicy overflowPolicy;
+  final long blockTimeoutNanos;
+  final Thread[] consumers;
+  final ConcurrentLinkedQueue<Runnable> reports = new ConcurrentLinkedQueue<>();
+  final LongAdder published = new LongAdder();
+  final LongAdder droppedNewest = new LongAdder();
+  final LongAdder droppedOldest = new LongAdder();
+  final LongAdder blocked = new LongAdder();
+  final LongAdder blockTimeouts = new LongAdder();
+  final LongAdder summarizedResponses = new LongAdder();
+  final LongAdder summarizedFailures = new LongAdder();
+  final ReentrantLock lock = new ReentrantLock();
+  final Condition publishedCondition = lock.newCondition();
+  final AtomicInteger blockedConsumers = new AtomicInteger();
+  volatile boolean closed;
+
+  AsyncDispatcher(LoggingCallAdapterFactory factory, int capacity, int consumerCount,
+      WaitStrategy waitStrategy, OverflowPolicy overflowPolicy, long blockTimeoutNanos) {
+    this.factory = factory;
+    this.logger = factory.logger;
+    this.ring = new EventRing(capacity);
+    this.waitStrategy = waitStrategy;
+    this.overflowPolicy = overflowPolicy;
+    this.blockTimeoutNanos = blockTimeoutNanos;
+    this.consumers = new Thread[consumerCount];
+    for (int i = 0; i < consumerCount; i++) {
+      Thread consumer = new Thread(this::consume, "LoggingCallAdapterFactory Logger " + (i + 1));
+      consumer.setDaemon(true);
+      consumers[i] = consumer;
+      consumer.start();
+    }
+  }
+
+  /** Returns false if the overflow policy dropped the event. */
+  boolean dispatchResponse(LoggingCall<?> call, Response<?> response) {
+    long position = claim(false);
+    if (position == -1) {
+      return false;
+    }
+    CallEvent event = ring.slot(position);
+    event.call = call;
+    event.code = response.code();
+    event.startNanos = call.startNanos;
+    event.endNanos = System.nanoTime();
+    if (response.isSuccessful()) {
+      event.response = response;
+    } else {
+      // The application will consume the error body, so the logger gets its own copy.
+      ResponseBody errorBody = response.errorBody();
+      BufferedSource source = errorBody.source();
+      long reservedBytes = factory.captureErrorBody(source, event.errorBody);
+      if (reservedBytes == -1) {
+        event.errorBodySkipped = true;
+        event.errorBodyTruncated = true;
+      } else {
+        event.reservedBytes = reservedBytes;
+        event.errorBodyTruncated = source.getBuffer().size() > reservedBytes;
+      }
+      event.errorBodyContentType = errorBody.contentType();
+      event.rawResponse = response.raw();
+    }
+    publish(position);
+    return true;
+  }
+
+  /** Returns false if the overflow policy dropped the event. */
+  boolean dispatchFailure(LoggingCall<?> call, Throwable t) {
+    long position = claim(true);
+    if (position == -1) {
+      return false;
+    }
+    CallEvent event = ring.slot(position);
+    event.call = call;
+    event.failure = t;
+    event.startNanos = call.startNanos;
+    event.endNanos = System.nanoTime();
+    publish(position);
+    return true;
+  }
+
+  /** Runs the report to the logger on a consumer. */
+  void dispatchReport(Runnable report) {
+    reports.add(report);
+    if (closed) {
+      // The consumers may have stopped before this report was added, so run it here.
+      runReports();
+      return;
+    }
+    if (waitStrategy == WaitStrategy.BLOCKING && blockedConsumers.get() != 0) {
+      signalConsumers();
+    }
+  }
+
+  /** Returns a position to fill and publish, or -1 if the overflow policy drops the event. */
+  private long claim(boolean failure) {
+    if (closed) {
+      droppedNewest.increment();
+      return -1;
+    }
+    long position = ring.tryClaim();
+    if (position != -1) {
+      return position;
+    }
+    switch (overflowPolicy) {
+      case DROP_NEWEST:
+        droppedNewest.increment();
+        return -1;
+      case DROP_OLDEST:
+        return claimDroppingOldest();
+      case BLOCK:
+        return claimBlocking();
+      case SUMMARIZE:
+        if (failure) {
+          summarizedFailures.increment();
+        } else {
+          summarizedResponses.increment();
+        }
+        return -1;
+      default:
+        throw new AssertionError(overflowPolicy);
+    }
+  }
+
+  private long claimDroppingOldest() {
+    while (true) {
+      long oldest = ring.tryTakeOldest();
+      if (oldest == -1) {
+        // The slot the new event needs was just taken by a consumer, which frees it right away,
+        // or is held by a producer that has not published it yet.
+        droppedNewest.increment();
+        return -1;
+      }
+      release(oldest);
+      droppedOldest.increment();
+      long position = ring.tryClaim();
+      if (position != -1) {
+        return position;
+      }
+      // Another producer claimed the freed slot first.
+    }
+  }
+
+  private long claimBlocking() {
+    long deadline = System.nanoTime() + blockTimeoutNanos;
+    while (true) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0 || closed) {
+        blockTimeouts.increment();
+        return -1;
+      }
+      LockSupport.parkNanos(this, Math.min(remaining, PARK_NANOS));
+      long position = ring.tryClaim();
+      if (position != -1) {
+        blocked.increment();
+        return position;
+      }
+    }
+  }
+
+  private void publish(long position) {
+    ring.publish(position);
+    published.increment();
+    if (closed) {
+      // The consumers may have stopped before this event was published, so deliver it here.
+      drain();
+      return;
+    }
+    if (waitStrategy == WaitStrategy.BLOCKING && blockedConsumers.get() != 0) {
+      signalConsumers();
+    }
+  }
+
+  private void signalConsumers() {
+    lock.lock();
+    try {
+      publishedCondition.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void consume() {
+    CallEvent spare = new CallEvent();
+    while (true) {
+      runReports();
+      factory.reportIfDue(System.nanoTime());
+      long position = ring.tryTake();
+      if (position == -1) {
+        if (closed && ring.isEmpty() && reports.isEmpty()) {
+          return;
+        }
+        await();
+        continue;
+      }
+      spare = deliver(ring.exchange(position, spare));
+    }
+  }
+
+  /** Delivers the published events and runs the added reports on the calling thread. */
+  private void drain() {
+    CallEvent spare = new CallEvent();
+    long position;
+    while ((position = ring.tryTake()) != -1) {
+      spare = deliver(ring.exchange(position, spare));
+    }
+    runReports();
+  }
+
+  private void runReports() {
+    Runnable report;
+    while ((report = reports.poll()) != null) {
+      try {
+        report.run();
+      } catch (Throwable t) {
+        handleLoggerFailure(t);
+      }
+    }
+  }
+
+  private void release(long position) {
+    factory.releaseCapture(ring.slot(position).reservedBytes);
+    ring.release(position);
+  }
+
+  private void await() {
+    switch (waitStrategy) {
+      case BUSY_SPIN:
+        break;
+      case YIELD:
+        Thread.yield();
+        break;
+      case PARK:
+        LockSupport.parkNanos(this, PARK_NANOS);
+        break;
+      case BLOCKING:
+        lock.lock();
+        blockedConsumers.incrementAndGet();
+        try {
+          // Check again after registering so a concurrent publish cannot be missed.
+          if (ring.isEmpty() && reports.isEmpty() && !closed) {
+            publishedCondition.awaitNanos(REPORT_CHECK_NANOS);
+          }
+        } catch (InterruptedException ignored) {
+          // The consumers stop only when the dispatcher is closed.
+        } finally {
+          blockedConsumers.decrementAndGet();
+          lock.unlock();
+        }
+        break;
+      default:
+        throw new AssertionError(waitStrategy);
+    }
+  }
+
+  /** Delivers the event taken from the ring, and returns it cleared for reuse as a spare. */
+  @SuppressWarnings("unchecked") // The event's call and response share their type parameter.
+  private CallEvent deliver(CallEvent event) {
+    Call<Object> call = (Call<Object>) event.call;
+    try {
+      if (event.failure != null) {
+        logger.onFailure(call, event.failure);
+      } else if (event.response != null) {
+        logger.onResponse(call, (Response<Object>) event.response);
+      } else {
+        ResponseBody errorBody = new CapturedErrorBody(event.errorBodyContentType,
+            event.errorBody, event.errorBodyTruncated, event.errorBodySkipped);
+        logger.onResponse(call, Response.error(errorBody, event.rawResponse));
+      }
+    } catch (Throwable t) {
+      handleLoggerFailure(t);
+    } finally {
+      factory.releaseCapture(event.reservedBytes);
+      event.clear();
+    }
+    return event;
+  }
+
+  private static void handleLoggerFailure(Throwable t) {
+    if (LoggingCallAdapterFactory.isFatal(t)) {
+      throw (Error) t;
+    }
+    // Keep the consumer alive for the next events.
+    Thread thread = Thread.currentThread();
+    thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+  }
+
+  AsyncStats stats() {
+    return new AsyncStats(published.sum(), droppedNewest.sum(), droppedOldest.sum(),
+        blocked.sum(), blockTimeouts.sum(), summarizedResponses.sum(), summarizedFailures.sum(),
+        ring.size());
+  }
+
+  void resetStats() {
+    published.reset();
+    droppedNewest.reset();
+    droppedOldest.reset();
+    blocked.reset();
+    blockTimeouts.reset();
+    summarizedResponses.reset();
+    summarizedFailures.reset();
+  }
+
+  /**
+   * Stops the consumers after they deliver the events already in the ring, and waits for them to
+   * stop for up to {@link #CLOSE_TIMEOUT_NANOS}. Then delivers the events that are left on the
+   * calling thread.
+   */
+  void close() {
+    closed = true;
+    signalConsumers();
+    for (Thread consumer : consumers) {
+      LockSupport.unpark(consumer);
+    }
+    long deadline = System.nanoTime() + CLOSE_TIMEOUT_NANOS;
+    Thread currentThread = Thread.currentThread();
+    try {
+      for (Thread consumer : consumers) {
+        if (consumer == currentThread) {
+          // The logger closed the factory.
+          continue;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+          TimeUnit.NANOSECONDS.timedJoin(consumer, remaining);
+        }
+      }
+    } catch (InterruptedException e) {
+      currentThread.interrupt();
+    }
+    // Events published by producers that passed the closed check before it was set.
+    drain();
+  }
+}
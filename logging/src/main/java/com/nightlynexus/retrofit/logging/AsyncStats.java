@@ -0,0 +1,86 @@
+package com.nightlynexus.retrofit.logging;
+
+/**
+ * A snapshot of the {@linkplain LoggingCallAdapterFactory.Builder#async asynchronous logging}
+ * counters.
+ */
+public final class AsyncStats {
+  final long publishedCount;
+  final long droppedNewestCount;
+  final long droppedOldestCount;
+  final long blockedCount;
+  final long blockTimeoutCount;
+  final long summarizedResponseCount;
+  final long summarizedFailureCount;
+  final int queuedCount;
+
+  AsyncStats(long publishedCount, long droppedNewestCount, long droppedOldestCount,
+      long blockedCount, long blockTimeoutCount, long summarizedResponseCount,
+      long summarizedFailureCount, int queuedCount) {
+    this.publishedCount = publishedCount;
+    this.droppedNewestCount = droppedNewestCount;
+    this.droppedOldestCount = droppedOldestCount;
+    this.blockedCount = blockedCount;
+    this.blockTimeoutCount = blockTimeoutCount;
+    this.summarizedResponseCount = summarizedResponseCount;
+    this.summarizedFailureCount = summarizedFailureCount;
+    this.queuedCount = queuedCount;
+  }
+
+  /** The number of call events handed to the logging threads. */
+  public long publishedCount() {
+    return publishedCount;
+  }
+
+  /**
+   * The number of new call events dropped by {@link OverflowPolicy#DROP_NEWEST}, by
+   * {@link OverflowPolicy#DROP_OLDEST} when no queued call event could make room, or because the
+   * factory was closed.
+   */
+  public long droppedNewestCount() {
+    return droppedNewestCount;
+  }
+
+  /** The number of queued call events dropped by {@link OverflowPolicy#DROP_OLDEST}. */
+  public long droppedOldestCount() {
+    return droppedOldestCount;
+  }
+
+  /** The number of call events published after {@link OverflowPolicy#BLOCK} waited for room. */
+  public long blockedCount() {
+    return blockedCount;
+  }
+
+  /** The number of call events dropped after {@link OverflowPolicy#BLOCK} timed out. */
+  public long blockTimeoutCount() {
+    return blockTimeoutCount;
+  }
+
+  /** The number of responses counted instead of logged by {@link OverflowPolicy#SUMMARIZE}. */
+  public long summarizedResponseCount() {
+    return summarizedResponseCount;
+  }
+
+  /** The number of failures counted instead of logged by {@link OverflowPolicy#SUMMARIZE}. */
+  public long summarizedFailureCount() {
+    return summarizedFailureCount;
+  }
+
+  /** The number of call events waiting for the logging threads. */
+  public int queuedCount() {
+    return queuedCount;
+  }
+
+  @Override public String toString() {
+    return "AsyncStats{"
+        + "published=" + publishedCount
+        + ", droppedNewest=" + droppedNewestCount
+        + ", droppedOldest=" + droppedOldestCount
+        + ", blocked=" + blockedCount
+        + ", blockTimeouts=" + blockTimeoutCount
+        + ", summarizedResponses=" + summarizedResponseCount
+        + ", summarizedFailures=" + summarizedFailureCount
+        + ", queued=" + queuedCount
+        + '}';
+  }
+}
@@ -0,0 +1,54 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the bytes of error bodies held for loggers across all in-flight calls of a factory.
+ */
+final class CaptureBudget {
+  final long limit;
+  final AtomicLong used = new AtomicLong();
+  final AtomicLong peakUsed = new AtomicLong();
+  final LongAdder rejected = new LongAdder();
+
+  CaptureBudget(long limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * Reserves up to {@code maxByteCount} bytes, as many as are left, and returns the number
+   * reserved. Returns 0 and counts a rejection if nothing is left.
+   */
+  long reserve(long maxByteCount) {
+    if (maxByteCount == 0) {
+      return 0;
+    }
+    while (true) {
+      long used = this.used.get();
+      long byteCount = Math.min(maxByteCount, limit - used);
+      if (byteCount <= 0) {
+        rejected.increment();
+        return 0;
+      }
+      long newUsed = used + byteCount;
+      if (this.used.compareAndSet(used, newUsed)) {
+        long peakUsed;
+        while (newUsed > (peakUsed = this.peakUsed.get())
+            && !this.peakUsed.compareAndSet(peakUsed, newUsed)) {
+        }
+        return byteCount;
+      }
+    }
+  }
+
+  void release(long byteCount) {
+    if (byteCount != 0) {
+      used.addAndGet(-byteCount);
+    }
+  }
+
+  CaptureBudgetStats stats() {
+    return new CaptureBudgetStats(limit, used.get(), peakUsed.get(), rejected.sum());
+  }
+}
@@ -0,0 +1,52 @@
+package com.nightlynexus.retrofit.logging;
+
+/**
+ * A snapshot of the {@linkplain LoggingCallAdapterFactory.Builder#captureBudget capture budget}.
+ */
+public final class CaptureBudgetStats {
+  final long limit;
+  final long usedBytes;
+  final long peakUsedBytes;
+  final long rejectedCount;
+
+  CaptureBudgetStats(long limit, long usedBytes, long peakUsedBytes, long rejectedCount) {
+    this.limit = limit;
+    this.usedBytes = usedBytes;
+    this.peakUsedBytes = peakUsedBytes;
+    this.rejectedCount = rejectedCount;
+  }
+
+  /** The most bytes that may be held for loggers at once. */
+  public long limit() {
+    return limit;
+  }
+
+  /** The bytes currently held for loggers. */
+  public long usedBytes() {
+    return usedBytes;
+  }
+
+  /** The most bytes held for loggers at once so far. */
+  public long peakUsedBytes() {
+    return peakUsedBytes;
+  }
+
+  /** The fraction of the budget currently in use, from 0 to 1. */
+  public double utilization() {
+    return limit == 0 ? 1 : (double) usedBytes / limit;
+  }
+
+  /** The number of error bodies not captured because the budget was exhausted. */
+  public long rejectedCount() {
+    return rejectedCount;
+  }
+
+  @Override public String toString() {
+    return "CaptureBudgetStats{"
+        + "limit=" + limit
+        + ", used=" + usedBytes
+        + ", peakUsed=" + peakUsedBytes
+        + ", rejected=" + rejectedCount
+        + '}';
+  }
+}
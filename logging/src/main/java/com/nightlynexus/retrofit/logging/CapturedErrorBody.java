@@ -0,0 +1,38 @@
+package com.nightlynexus.retrofit.logging;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * An error body's prefix captured for the logger, remembering whether the rest was cut off or the
+ * capture was skipped entirely.
+ */
+final class CapturedErrorBody extends ResponseBody {
+  final MediaType contentType;
+  final Buffer buffer;
+  final long contentLength;
+  final boolean truncated;
+  final boolean skipped;
+
+  CapturedErrorBody(MediaType contentType, Buffer buffer, boolean truncated, boolean skipped) {
+    this.contentType = contentType;
+    this.buffer = buffer;
+    this.contentLength = buffer.size();
+    this.truncated = truncated;
+    this.skipped = skipped;
+  }
+
+  @Override public MediaType contentType() {
+    return contentType;
+  }
+
+  @Override public long contentLength() {
+    return contentLength;
+  }
+
+  @Override public BufferedSource source() {
+    return buffer;
+  }
+}
@@ -0,0 +1,210 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import retrofit2.http.Body;
+import retrofit2.http.DELETE;
+import retrofit2.http.GET;
+import retrofit2.http.HEAD;
+import retrofit2.http.HTTP;
+import retrofit2.http.Header;
+import retrofit2.http.OPTIONS;
+import retrofit2.http.PATCH;
+import retrofit2.http.POST;
+import retrofit2.http.PUT;
+import retrofit2.http.Path;
+import retrofit2.http.Query;
+
+/**
+ * Describes a Retrofit service method. The factory creates one per service method, so loggers can
+ * look up the method's details without reflection on every call. Service methods with equal
+ * annotations share an endpoint, so creating the same service with many Retrofit instances does
+ * not add endpoints.
+ * @see LoggingCallAdapterFactory#endpoint(retrofit2.Call)
+ */
+public final class Endpoint {
+  static final int NO_BODY = -1;
+
+  final String httpMethod;
+  final String relativeUrl;
+  final Annotation[] annotations;
+  /** The endpoint's dense index in its factory's metrics, or -1 if the factory records none. */
+  final int id;
+  /** Null if the factory does not record metrics. */
+  final LatencyHistogram latencies;
+  /** The fraction of successful calls that are logged. */
+  volatile double sampleRate = 1;
+  /** Successful calls that take at least this long are logged even if they are not sampled. */
+  volatile long slowCallThresholdNanos = Long.MAX_VALUE;
+  /** The endpoint's index in its factory's adaptive sampler, or -1 if the factory has none. */
+  int samplingIndex = -1;
+  /** The endpoint's token buckets, or null if the factory does not rate limit logging. */
+  LogRateLimiter.Buckets rateLimits;
+  // Retrofit does not give the factory the service method, so its parameters are resolved from the
+  // first call's Invocation.
+  private volatile Parameters parameters;
+
+  Endpoint(Annotation[] annotations, int id, LatencyHistogram latencies) {
+    this.annotations = annotations;
+    this.id = id;
+    this.latencies = latencies;
+    String httpMethod = null;
+    String relativeUrl = null;
+    for (Annotation annotation : annotations) {
+      if (annotation instanceof GET) {
+        httpMethod = "GET";
+        relativeUrl = ((GET) annotation).value();
+      } else if (annotation instanceof POST) {
+        httpMethod = "POST";
+        relativeUrl = ((POST) annotation).value();
+      } else if (annotation instanceof PUT) {
+        httpMethod = "PUT";
+        relativeUrl = ((PUT) annotation).value();
+      } else if (annotation instanceof DELETE) {
+        httpMethod = "DELETE";
+        relativeUrl = ((DELETE) annotation).value();
+      } else if (annotation instanceof PATCH) {
+        httpMethod = "PATCH";
+        relativeUrl = ((PATCH) annotation).value();
+      } else if (annotation instanceof HEAD) {
+        httpMethod = "HEAD";
+        relativeUrl = ((HEAD) annotation).value();
+      } else if (annotation instanceof OPTIONS) {
+        httpMethod = "OPTIONS";
+        relativeUrl = ((OPTIONS) annotation).value();
+      } else if (annotation instanceof HTTP) {
+        HTTP http = (HTTP) annotation;
+        httpMethod = http.method();
+        relativeUrl = http.path();
+      }
+    }
+    this.httpMethod = httpMethod;
+    this.relativeUrl = relativeUrl;
+  }
+
+  /**
+   * The HTTP method, like {@code GET}, or null if the service method has no HTTP method
+   * annotation.
+   */
+  public String httpMethod() {
+    return httpMethod;
+  }
+
+  /**
+   * The relative URL template, like {@code users/{id}}, before its path parameters are replaced.
+   * Empty if the service method uses {@link retrofit2.http.Url}. Null if the service method has no
+   * HTTP method annotation.
+   */
+  public String relativeUrl() {
+    return relativeUrl;
+  }
+
+  /** Returns the service method's annotation of the given type, or null if it has none. */
+  public <A extends Annotation> A annotation(Class<A> type) {
+    for (Annotation annotation : annotations) {
+      if (type.isInstance(annotation)) {
+        return type.cast(annotation);
+      }
+    }
+    return null;
+  }
+
+  /** Returns the parameter indices of the {@code method}. */
+  Parameters parameters(Method method) {
+    Parameters parameters = this.parameters;
+    if (parameters != null && parameters.method == method) {
+      return parameters;
+    }
+    parameters = Parameters.forMethod(method);
+    if (this.parameters == null) {
+      this.parameters = parameters;
+    }
+    return parameters;
+  }
+
+  /**
+   * The indices of a service method's parameters that loggers look up by annotation. Lookups scan
+   * small arrays, so they do not allocate.
+   */
+  static final class Parameters {
+    final Method method;
+    final int bodyIndex;
+    final String[] pathNames;
+    final int[] pathIndices;
+    final String[] queryNames;
+    final int[] queryIndices;
+    final String[] headerNames;
+    final int[] headerIndices;
+
+    Parameters(Method method, int bodyIndex, String[] pathNames, int[] pathIndices,
+        String[] queryNames, int[] queryIndices, String[] headerNames, int[] headerIndices) {
+      this.method = method;
+      this.bodyIndex = bodyIndex;
+      this.pathNames = pathNames;
+      this.pathIndices = pathIndices;
+      this.queryNames = queryNames;
+      this.queryIndices = queryIndices;
+      this.headerNames = headerNames;
+      this.headerIndices = headerIndices;
+    }
+
+    /**
+     * Returns the method's parameters from its {@linkplain GeneratedEndpoints generated table},
+     * or reflects on the method if the table is absent.
+     */
+    static Parameters forMethod(Method method) {
+      Parameters parameters = GeneratedEndpoints.parameters(method);
+      return parameters != null ? parameters : of(method);
+    }
+
+    static Parameters of(Method method) {
+      Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+      int count = parameterAnnotations.length;
+      int bodyIndex = NO_BODY;
+      String[] pathNames = new String[count];
+      int[] pathIndices = new int[count];
+      int pathCount = 0;
+      String[] queryNames = new String[count];
+      int[] queryIndices = new int[count];
+      int queryCount = 0;
+      String[] headerNames = new String[count];
+      int[] headerIndices = new int[count];
+      int headerCount = 0;
+      for (int i = 0; i < count; i++) {
+        for (Annotation annotation : parameterAnnotations[i]) {
+          if (annotation instanceof Body) {
+            bodyIndex = i;
+          } else if (annotation instanceof Path) {
+            pathNames[pathCount] = ((Path) annotation).value();
+            pathIndices[pathCount++] = i;
+          } else if (annotation instanceof Query) {
+            queryNames[queryCount] = ((Query) annotation).value();
+            queryIndices[queryCount++] = i;
+          } else if (annotation instanceof Header) {
+            headerNames[headerCount] = ((Header) annotation).value();
+            headerIndices[headerCount++] = i;
+          }
+        }
+      }
+      return new Parameters(method, bodyIndex,
+          Arrays.copyOf(pathNames, pathCount), Arrays.copyOf(pathIndices, pathCount),
+          Arrays.copyOf(queryNames, queryCount), Arrays.copyOf(queryIndices, queryCount),
+          Arrays.copyOf(headerNames, headerCount), Arrays.copyOf(headerIndices, headerCount));
+    }
+
+    /** Returns the index of the parameter with the name, or -1 if there is none. */
+    static int indexOf(String[] names, int[] indices, String name) {
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].equals(name)) {
+          return indices[i];
+        }
+      }
+      return -1;
+    }
+  }
+
+  @Override public String toString() {
+    return httpMethod + " " + relativeUrl;
+  }
+}
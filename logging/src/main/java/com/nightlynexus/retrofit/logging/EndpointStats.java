@@ -0,0 +1,94 @@
+package com.nightlynexus.retrofit.logging;
+
+/**
+ * A snapshot of the counters of an endpoint's calls.
+ * @see LoggingCallAdapterFactory#endpointStats()
+ */
+public final class EndpointStats {
+  final long[] counters;
+
+  EndpointStats(long[] counters) {
+    this.counters = counters;
+  }
+
+  /** The number of calls that completed with a response or a failure. */
+  public long callCount() {
+    return counters[Metrics.CALLS];
+  }
+
+  /** The number of responses with a 2xx status code. */
+  public long successCount() {
+    return statusClassCount(2);
+  }
+
+  /**
+   * The number of responses in the status class, from 1 for 1xx responses to 5 for 5xx responses.
+   */
+  public long statusClassCount(int statusClass) {
+    if (statusClass < 1 || statusClass > 5) {
+      throw new IllegalArgumentException("statusClass < 1 || statusClass > 5: " + statusClass);
+    }
+    return counters[Metrics.STATUS_1XX + statusClass - 1];
+  }
+
+  /** The number of responses with a status code outside of 100 to 599. */
+  public long otherStatusCount() {
+    return counters[Metrics.STATUS_OTHER];
+  }
+
+  /** The number of failures that were timeouts, like {@link java.net.SocketTimeoutException}. */
+  public long timeoutFailureCount() {
+    return counters[Metrics.FAILURES_TIMEOUT];
+  }
+
+  /** The number of failures that were other {@link java.io.IOException IOExceptions}. */
+  public long ioFailureCount() {
+    return counters[Metrics.FAILURES_IO];
+  }
+
+  /** The number of other failures, like failures to build the request or convert the response. */
+  public long otherFailureCount() {
+    return counters[Metrics.FAILURES_OTHER];
+  }
+
+  /** The number of failures of all types. */
+  public long failureCount() {
+    return timeoutFailureCount() + ioFailureCount() + otherFailureCount();
+  }
+
+  /** The sum of the request bodies' lengths, where the lengths were known. */
+  public long requestBytes() {
+    return counters[Metrics.REQUEST_BYTES];
+  }
+
+  /** The sum of the response bodies' lengths, where the lengths were known. */
+  public long responseBytes() {
+    return counters[Metrics.RESPONSE_BYTES];
+  }
+
+  /**
+   * The number of successful calls not given to the logger because the
+   * {@linkplain LoggingCallAdapterFactory.Sampler sampler} left them out.
+   */
+  public long unloggedCount() {
+    return counters[Metrics.UNLOGGED];
+  }
+
+  @Override public String toString() {
+    return "EndpointStats{"
+        + "calls=" + callCount()
+        + ", 1xx=" + statusClassCount(1)
+        + ", 2xx=" + statusClassCount(2)
+        + ", 3xx=" + statusClassCount(3)
+        + ", 4xx=" + statusClassCount(4)
+        + ", 5xx=" + statusClassCount(5)
+        + ", otherStatus=" + otherStatusCount()
+        + ", timeoutFailures=" + timeoutFailureCount()
+        + ", ioFailures=" + ioFailureCount()
+        + ", otherFailures=" + otherFailureCount()
+        + ", requestBytes=" + requestBytes()
+        + ", responseBytes=" + responseBytes()
+        + ", unlogged=" + unloggedCount()
+        + '}';
+  }
+}
@@ -0,0 +1,85 @@
+package com.nightlynexus.retrofit.logging;
+
+/**
+ * Repeats of an error that were {@linkplain LoggingCallAdapterFactory.Builder#deduplicateErrors
+ * deduplicated} instead of logged. The first error of the burst, the exemplar, was logged as
+ * usual. Errors that the {@linkplain LoggingCallAdapterFactory.Builder#rateLimit rate limit}
+ * suppressed or that {@linkplain LoggingCallAdapterFactory.Builder#async asynchronous logging}
+ * dropped do not start bursts, so their repeats are not deduplicated.
+ */
+public final class ErrorBurst {
+  final Endpoint endpoint;
+  final long fingerprint;
+  final int code;
+  final Throwable failure;
+  final String errorMessage;
+  final long count;
+  final long firstTimeMillis;
+  final long lastTimeMillis;
+
+  ErrorBurst(Endpoint endpoint, long fingerprint, int code, Throwable failure,
+      String errorMessage, long count, long firstTimeMillis, long lastTimeMillis) {
+    this.endpoint = endpoint;
+    this.fingerprint = fingerprint;
+    this.code = code;
+    this.failure = failure;
+    this.errorMessage = errorMessage;
+    this.count = count;
+    this.firstTimeMillis = firstTimeMillis;
+    this.lastTimeMillis = lastTimeMillis;
+  }
+
+  public Endpoint endpoint() {
+    return endpoint;
+  }
+
+  /** Identifies the error. Errors with the same fingerprint are treated as repeats. */
+  public long fingerprint() {
+    return fingerprint;
+  }
+
+  /** The HTTP status code of the error responses, or -1 if the errors are failures. */
+  public int code() {
+    return code;
+  }
+
+  /** The exemplar failure, or null if the errors are responses. */
+  public Throwable failure() {
+    return failure;
+  }
+
+  /**
+   * The prefix of the exemplar's error body, or null if the errors are failures or the error body
+   * is not plain text.
+   */
+  public String errorMessage() {
+    return errorMessage;
+  }
+
+  /** The number of errors in the burst, including the exemplar. */
+  public long count() {
+    return count;
+  }
+
+  /** The time of the exemplar, in milliseconds since the epoch. */
+  public long firstTimeMillis() {
+    return firstTimeMillis;
+  }
+
+  /** The time of the last repeat, in milliseconds since the epoch. */
+  public long lastTimeMillis() {
+    return lastTimeMillis;
+  }
+
+  @Override public String toString() {
+    return "ErrorBurst{"
+        + "endpoint=" + endpoint
+        + ", fingerprint=" + Long.toHexString(fingerprint)
+        + (failure != null ? ", failure=" + failure : ", code=" + code)
+        + (errorMessage != null ? ", errorMessage=" + errorMessage : "")
+        + ", count=" + count
+        + ", firstTimeMillis=" + firstTimeMillis
+        + ", lastTimeMillis=" + lastTimeMillis
+        + '}';
+  }
+}
@@ -0,0 +1,226 @@
+package com.nightlynexus.retrofit.logging;
+
+import com.nightlynexus.retrofit.logging.LoggingCallAdapterFactory.Logger;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+/**
+ * Collapses repeats of an error within a window into one {@link ErrorBurst}.
+ * <p>An error's fingerprint hashes its service method, and either the failure's class and top
+ * stack frames, or the response's status code and the start of its error message with runs of
+ * digits collapsed, so errors that differ only by IDs or timestamps are treated as repeats.
+ * <p>The first error of a fingerprint is logged and {@linkplain #start starts} a burst once the
+ * factory accepts it for logging, so errors that the rate limit suppresses or that asynchronous
+ * logging drops are not exemplars. Repeats within the window only increment the burst's count.
+ * The burst is reported when the window has ended, by the next logged error with the fingerprint
+ * or by a {@linkplain #sweepIfDue sweep} that the factory runs after each window. Reports are
+ * given to the logger through an executor, which runs them on the factory's logging threads if it
+ * logs asynchronously.
+ */
+final class ErrorDeduplicator {
+  static final int FRAME_COUNT = 3;
+  static final long MESSAGE_BYTE_LIMIT = 128;
+  static final int MESSAGE_CHAR_LIMIT = 64;
+  /** Errors with new fingerprints are logged without deduplication beyond this many bursts. */
+  static final int MAX_BURSTS = 1024;
+
+  final Logger logger;
+  final Executor reports;
+  final long windowNanos;
+  final ConcurrentHashMap<Long, Burst> bursts = new ConcurrentHashMap<>();
+  private final ReentrantLock sweepLock = new ReentrantLock();
+  private volatile long nextSweepNanos;
+
+  ErrorDeduplicator(Logger logger, Executor reports, long windowNanos) {
+    this.logger = logger;
+    this.reports = reports;
+    this.windowNanos = windowNanos;
+    this.nextSweepNanos = System.nanoTime() + windowNanos;
+  }
+
+  /**
+   * Returns null if the failure repeats a burst's exemplar, or the burst that the failure starts if
+   * it is logged.
+   */
+  Burst onFailure(Endpoint endpoint, Throwable t, long nanos) {
+    long fingerprint = fingerprint(endpoint, t);
+    Burst burst = bursts.get(fingerprint);
+    if (burst != null && burst.tryRepeat(nanos)) {
+      return null;
+    }
+    return new Burst(endpoint, fingerprint, -1, t, null, nanos);
+  }
+
+  /**
+   * Returns null if the error response repeats a burst's exemplar, or the burst that the error
+   * response starts if it is logged.
+   */
+  Burst onErrorResponse(Endpoint endpoint, Response<?> response, long nanos) {
+    String errorMessage = errorMessagePrefix(response.errorBody());
+    long fingerprint = fingerprint(endpoint, response.code(), errorMessage);
+    Burst burst = bursts.get(fingerprint);
+    if (burst != null && burst.tryRepeat(nanos)) {
+      return null;
+    }
+    return new Burst(endpoint, fingerprint, response.code(), null, errorMessage, nanos);
+  }
+
+  /**
+   * Starts the burst of an error that is logged, replacing the ended burst with its fingerprint,
+   * if any.
+   */
+  void start(Burst started) {
+    long fingerprint = started.fingerprint;
+    Burst ended = bursts.get(fingerprint);
+    if (ended != null) {
+      if (started.startNanos - ended.endNanos < 0) {
+        // Another thread started a burst concurrently. This error was logged too.
+        return;
+      }
+      if (bursts.remove(fingerprint, ended)) {
+        report(ended);
+      }
+    } else if (bursts.size() >= MAX_BURSTS) {
+      return;
+    }
+    bursts.putIfAbsent(fingerprint, started);
+  }
+
+  private void report(Burst burst) {
+    long repeats = burst.repeats.sum();
+    if (repeats != 0) {
+      ErrorBurst errorBurst = new ErrorBurst(burst.endpoint, burst.fingerprint, burst.code,
+          burst.failure, burst.errorMessage, repeats + 1, burst.firstTimeMillis,
+          burst.lastTimeMillis);
+      reports.execute(() -> logger.onErrorBurst(errorBurst));
+    }
+  }
+
+  /** Reports the bursts whose windows have ended if a window has passed since the last sweep. */
+  void sweepIfDue(long nanos) {
+    if (nanos - nextSweepNanos >= 0 && sweepLock.tryLock()) {
+      try {
+        if (nanos - nextSweepNanos >= 0) {
+          nextSweepNanos = nanos + windowNanos;
+          sweep(nanos, false);
+        }
+      } finally {
+        sweepLock.unlock();
+      }
+    }
+  }
+
+  /** Reports the bursts whose windows have ended, or all of them. */
+  void sweep(long nanos, boolean all) {
+    for (Iterator<Burst> iterator = bursts.values().iterator(); iterator.hasNext(); ) {
+      Burst burst = iterator.next();
+      if (all || nanos - burst.endNanos >= 0) {
+        // Remove by key and value, in case a new burst replaced this one concurrently.
+        if (bursts.remove(burst.fingerprint, burst)) {
+          report(burst);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the start of the error body without consuming it, since the application and the logger
+   * still read it.
+   */
+  static String errorMessagePrefix(ResponseBody errorBody) {
+    ResponseBody peeked = ResponseBody.create(errorBody.source().peek(), errorBody.contentType(),
+        errorBody.contentLength());
+    try {
+      return LoggingCallAdapterFactory.errorMessage(peeked, MESSAGE_BYTE_LIMIT).text();
+    } catch (IOException e) {
+      // The application sees this failure when it reads the error body.
+      return null;
+    }
+  }
+
+  static long fingerprint(Endpoint endpoint, Throwable t) {
+    long hash = System.identityHashCode(endpoint);
+    hash = hash * 31 + t.getClass().getName().hashCode();
+    StackTraceElement[] stackTrace = t.getStackTrace();
+    for (int i = 0; i < stackTrace.length && i < FRAME_COUNT; i++) {
+      StackTraceElement frame = stackTrace[i];
+      hash = hash * 31 + frame.getClassName().hashCode();
+      hash = hash * 31 + frame.getMethodName().hashCode();
+      hash = hash * 31 + frame.getLineNumber();
+    }
+    return mix(hash);
+  }
+
+  static long fingerprint(Endpoint endpoint, int code, String errorMessage) {
+    long hash = System.identityHashCode(endpoint);
+    hash = hash * 31 + code;
+    if (errorMessage != null) {
+      boolean inDigits = false;
+      for (int i = 0, length = Math.min(errorMessage.length(), MESSAGE_CHAR_LIMIT); i < length;
+          i++) {
+        char c = errorMessage.charAt(i);
+        boolean digit = c >= '0' && c <= '9';
+        if (!digit) {
+          hash = hash * 31 + c;
+        } else if (!inDigits) {
+          hash = hash * 31 + '#';
+        }
+        inDigits = digit;
+      }
+    }
+    // Keep response fingerprints apart from failure fingerprints.
+    return ~mix(hash);
+  }
+
+  /** Spreads the bits of the hash, so similar errors do not get similar fingerprints. */
+  static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  final class Burst {
+    final Endpoint endpoint;
+    final long fingerprint;
+    final int code;
+    final Throwable failure;
+    final String errorMessage;
+    final long startNanos;
+    final long endNanos;
+    final long firstTimeMillis;
+    final LongAdder repeats = new LongAdder();
+    volatile long lastTimeMillis;
+
+    Burst(Endpoint endpoint, long fingerprint, int code, Throwable failure, String errorMessage,
+        long startNanos) {
+      this.endpoint = endpoint;
+      this.fingerprint = fingerprint;
+      this.code = code;
+      this.failure = failure;
+      this.errorMessage = errorMessage;
+      this.startNanos = startNanos;
+      this.endNanos = startNanos + windowNanos;
+      this.firstTimeMillis = System.currentTimeMillis();
+      this.lastTimeMillis = firstTimeMillis;
+    }
+
+    /** Counts a repeat and returns true, or returns false if the window has ended. */
+    boolean tryRepeat(long nanos) {
+      if (nanos - endNanos >= 0) {
+        return false;
+      }
+      repeats.increment();
+      lastTimeMillis = System.currentTimeMillis();
+      return true;
+    }
+  }
+}
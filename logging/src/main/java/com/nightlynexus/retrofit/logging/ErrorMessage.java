@@ -0,0 +1,28 @@
+package com.nightlynexus.retrofit.logging;
+
+/**
+ * An error body read by {@link LoggingCallAdapterFactory#errorMessage(okhttp3.ResponseBody, long)}.
+ */
+public final class ErrorMessage {
+  final String text;
+  final boolean truncated;
+
+  ErrorMessage(String text, boolean truncated) {
+    this.text = text;
+    this.truncated = truncated;
+  }
+
+  /** The error body as a string, or null if it is not plain text. */
+  public String text() {
+    return text;
+  }
+
+  /** True if the error body was longer than the byte limit and {@link #text()} is its prefix. */
+  public boolean truncated() {
+    return truncated;
+  }
+
+  @Override public String toString() {
+    return truncated ? text + "..." : text;
+  }
+}
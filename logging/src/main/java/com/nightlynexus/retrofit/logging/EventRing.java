@@ -0,0 +1,163 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import okhttp3.MediaType;
+import okio.Buffer;
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * A bounded, multi-producer, multi-consumer ring of pre-allocated {@link CallEvent} slots.
+ * <p>Producers {@linkplain #tryClaim claim} a position, fill its slot in place, and
+ * {@linkplain #publish publish} it. Consumers {@linkplain #tryTake take} a published position and
+ * {@linkplain #exchange exchange} its event for an empty one, which releases the slot for reuse
+ * before the event is logged. Each slot's sequence number tracks which lap of the ring it belongs
+ * to, so no locks are needed.
+ */
+final class EventRing {
+  final CallEvent[] slots;
+  final AtomicLongArray sequences;
+  final int mask;
+  final AtomicLong head = new AtomicLong();
+  final AtomicLong tail = new AtomicLong();
+
+  EventRing(int capacity) {
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    // With one slot, a published sequence (position + 1) equals the next lap's free sequence
+    // (position + size), so a taken slot could be claimed again before it is released.
+    size = Math.max(size, 2);
+    slots = new CallEvent[size];
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      slots[i] = new CallEvent();
+      sequences.set(i, i);
+    }
+    mask = size - 1;
+  }
+
+  /** Returns a position whose slot the caller must fill and publish, or -1 if the ring is full. */
+  long tryClaim() {
+    long position = tail.get();
+    while (true) {
+      long difference = sequences.get((int) position & mask) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          return position;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        return -1;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  CallEvent slot(long position) {
+    return slots[(int) position & mask];
+  }
+
+  void publish(long position) {
+    sequences.set((int) position & mask, position + 1);
+  }
+
+  /** Returns a published position whose slot the caller must release, or -1 if none exists. */
+  long tryTake() {
+    long position = head.get();
+    while (true) {
+      long difference = sequences.get((int) position & mask) - (position + 1);
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          return position;
+        }
+        position = head.get();
+      } else if (difference < 0) {
+        return -1;
+      } else {
+        position = head.get();
+      }
+    }
+  }
+
+  /**
+   * Takes the oldest published position if its slot is the one the next claim needs, so releasing
+   * it makes room. Returns -1 if that slot is taken by a consumer that has not exchanged it yet,
+   * or is claimed but not published yet.
+   */
+  long tryTakeOldest() {
+    long position = tail.get() - slots.length;
+    if (head.get() != position
+        || sequences.get((int) position & mask) != position + 1) {
+      return -1;
+    }
+    return head.compareAndSet(position, position + 1) ? position : -1;
+  }
+
+  /**
+   * Puts the empty {@code spare} event in the taken position's slot and releases the slot. Returns
+   * the slot's event, which the caller owns until it clears it.
+   */
+  CallEvent exchange(long position, CallEvent spare) {
+    int index = (int) position & mask;
+    CallEvent event = slots[index];
+    slots[index] = spare;
+    // Publishes the slot's new event to the next producer.
+    sequences.set(index, position + slots.length);
+    return event;
+  }
+
+  /** Clears the taken position's slot and releases it. */
+  void release(long position) {
+    slot(position).clear();
+    sequences.set((int) position & mask, position + slots.length);
+  }
+
+  /** The number of claimed positions not yet taken. */
+  int size() {
+    long size = tail.get() - head.get();
+    return size < 0 ? 0 : (int) Math.min(size, slots.length);
+  }
+
+  boolean isEmpty() {
+    long position = head.get();
+    return sequences.get((int) position & mask) - (position + 1) < 0;
+  }
+
+  /** A reusable call event. The error body buffer recycles its segments between calls. */
+  static final class CallEvent {
+    Call<?> call;
+    /** The successful response. Null for error responses and failures. */
+    Response<?> response;
+    /** The raw response of an error response. */
+    okhttp3.Response rawResponse;
+    Throwable failure;
+    int code;
+    long startNanos;
+    long endNanos;
+    final Buffer errorBody = new Buffer();
+    MediaType errorBodyContentType;
+    boolean errorBodyTruncated;
+    boolean errorBodySkipped;
+    /** The bytes of the capture budget held by the error body. */
+    long reservedBytes;
+
+    void clear() {
+      call = null;
+      response = null;
+      rawResponse = null;
+      failure = null;
+      code = 0;
+      startNanos = 0;
+      endNanos = 0;
+      errorBody.clear();
+      errorBodyContentType = null;
+      errorBodyTruncated = false;
+      errorBodySkipped = false;
+      reservedBytes = 0;
+    }
+  }
+}
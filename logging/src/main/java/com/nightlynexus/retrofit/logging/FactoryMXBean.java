@@ -0,0 +1,180 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/** Reads a factory's statistics for JMX clients. */
+final class FactoryMXBean implements LoggingCallAdapterFactoryMXBean {
+  static final String DOMAIN = "com.nightlynexus.retrofit.logging";
+  static final long RATE_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+  static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  /** Enough samples taken a sample interval apart to span the rate window. */
+  static final int SAMPLE_COUNT = (int) (RATE_WINDOW_NANOS / SAMPLE_INTERVAL_NANOS);
+
+  final LoggingCallAdapterFactory factory;
+  /**
+   * The call count, sampled at most once per sample interval as the rate is read. A ring, oldest
+   * first from the start index. Guarded by this.
+   */
+  private final long[] sampleNanos = new long[SAMPLE_COUNT];
+  private final long[] sampleCallCounts = new long[SAMPLE_COUNT];
+  private int sampleStart;
+  private int sampleSize;
+
+  FactoryMXBean(LoggingCallAdapterFactory factory) {
+    this(factory, System.nanoTime());
+  }
+
+  FactoryMXBean(LoggingCallAdapterFactory factory, long nanos) {
+    this.factory = factory;
+    addSample(nanos, 0);
+  }
+
+  static ObjectName register(LoggingCallAdapterFactory factory, String name) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      ObjectName objectName = new ObjectName(
+          DOMAIN + ":type=LoggingCallAdapterFactory,name=" + ObjectName.quote(name));
+      server.registerMBean(new StandardMBean(new FactoryMXBean(factory),
+          LoggingCallAdapterFactoryMXBean.class, true), objectName);
+      return objectName;
+    } catch (JMException e) {
+      throw new IllegalStateException("Unable to register the MBean named " + name, e);
+    }
+  }
+
+  static void unregister(ObjectName objectName) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (InstanceNotFoundException ignored) {
+      // Already closed.
+    } catch (JMException e) {
+      throw new IllegalStateException("Unable to unregister the MBean named " + objectName, e);
+    }
+  }
+
+  @Override public long getInFlightCallCount() {
+    Metrics metrics = factory.metrics;
+    return metrics == null ? 0 : metrics.inFlight.sum();
+  }
+
+  @Override public long getCallCount() {
+    Metrics metrics = factory.metrics;
+    return metrics == null ? 0 : metrics.total(Metrics.CALLS);
+  }
+
+  @Override public double getCallsPerSecond() {
+    return callsPerSecond(System.nanoTime(), getCallCount());
+  }
+
+  /**
+   * Returns the rate since the oldest sample in the trailing rate window, or since the newest
+   * sample if they are all older. Reading the rate does not reset it, so JMX clients polling
+   * concurrently see the same rates.
+   */
+  synchronized double callsPerSecond(long nanos, long callCount) {
+    int base = sampleStart + sampleSize - 1;
+    for (int i = 0; i < sampleSize; i++) {
+      int index = sampleStart + i;
+      if (nanos - sampleNanos[index % SAMPLE_COUNT] <= RATE_WINDOW_NANOS) {
+        base = index;
+        break;
+      }
+    }
+    long baseNanos = sampleNanos[base % SAMPLE_COUNT];
+    long baseCallCount = sampleCallCounts[base % SAMPLE_COUNT];
+    long newestNanos = sampleNanos[(sampleStart + sampleSize - 1) % SAMPLE_COUNT];
+    if (nanos - newestNanos >= SAMPLE_INTERVAL_NANOS) {
+      addSample(nanos, callCount);
+    }
+    long elapsedNanos = nanos - baseNanos;
+    return elapsedNanos <= 0 ? 0 : Math.max(0, callCount - baseCallCount) * 1e9 / elapsedNanos;
+  }
+
+  /** Adds the newest sample, replacing the oldest one if the ring is full. Guarded by this. */
+  private void addSample(long nanos, long callCount) {
+    int index;
+    if (sampleSize == SAMPLE_COUNT) {
+      index = sampleStart;
+      sampleStart = (sampleStart + 1) % SAMPLE_COUNT;
+    } else {
+      index = (sampleStart + sampleSize) % SAMPLE_COUNT;
+      sampleSize++;
+    }
+    sampleNanos[index] = nanos;
+    sampleCallCounts[index] = callCount;
+  }
+
+  @Override public double getErrorRate() {
+    Metrics metrics = factory.metrics;
+    if (metrics == null) {
+      return 0;
+    }
+    long calls = metrics.total(Metrics.CALLS);
+    if (calls == 0) {
+      return 0;
+    }
+    // 4xx and 5xx responses, and failures.
+    long errors = metrics.total(Metrics.STATUS_1XX + 3)
+        + metrics.total(Metrics.STATUS_1XX + 4)
+        + metrics.total(Metrics.FAILURES_TIMEOUT)
+        + metrics.total(Metrics.FAILURES_IO)
+        + metrics.total(Metrics.FAILURES_OTHER);
+    return Math.min(1, (double) errors / calls);
+  }
+
+  @Override public String[] getEndpointLatencies() {
+    Map<Endpoint, LatencySnapshot> snapshots = factory.latencySnapshots();
+    if (snapshots == null) {
+      return new String[0];
+    }
+    String[] latencies = new String[snapshots.size()];
+    int i = 0;
+    for (Map.Entry<Endpoint, LatencySnapshot> entry : snapshots.entrySet()) {
+      latencies[i++] = entry.getKey() + " " + entry.getValue();
+    }
+    return latencies;
+  }
+
+  @Override public int getQueueDepth() {
+    AsyncStats stats = factory.asyncStats();
+    return stats == null ? 0 : stats.queuedCount();
+  }
+
+  @Override public long getDroppedCount() {
+    AsyncStats stats = factory.asyncStats();
+    return stats == null
+        ? 0
+        : stats.droppedNewestCount()
+            + stats.droppedOldestCount()
+            + stats.blockTimeoutCount()
+            + stats.summarizedResponseCount()
+            + stats.summarizedFailureCount();
+  }
+
+  @Override public long getErrorBodyCaptureLimit() {
+    return factory.errorBodyCaptureLimit;
+  }
+
+  @Override public void setErrorBodyCaptureLimit(long byteCount) {
+    if (byteCount < 0) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+    factory.errorBodyCaptureLimit = byteCount;
+  }
+
+  @Override public synchronized void resetStatistics() {
+    if (factory.metrics != null) {
+      factory.metrics.reset();
+    }
+    if (factory.asyncDispatcher != null) {
+      factory.asyncDispatcher.resetStats();
+    }
+    sampleSize = 0;
+    addSample(System.nanoTime(), 0);
+  }
+}
@@ -0,0 +1,19 @@
+package com.nightlynexus.retrofit.logging;
+
+import retrofit2.Response;
+
+/**
+ * Emits a Java Flight Recorder event for each call. Java 8 has no {@code jdk.jfr} API, so this
+ * version does nothing. The multi-release JAR replaces it with a working version on Java 11 and
+ * newer.
+ */
+final class FlightRecorderEvents {
+  static void response(Endpoint endpoint, long durationNanos, Response<?> response) {
+  }
+
+  static void failure(Endpoint endpoint, long durationNanos, Throwable t) {
+  }
+
+  private FlightRecorderEvents() {
+  }
+}
@@ -0,0 +1,109 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The base class of the parameter tables that the {@code logging-processor} annotation processor
+ * generates for Retrofit service interfaces. Applications do not use this class directly.
+ * <p>For a service interface {@code com.example.Service}, the generated table is
+ * {@code com.example.Service_LoggingEndpoints}. When it exists, {@link LoggingCallAdapterFactory}
+ * reads service method parameters from it instead of reflecting on their annotations. Nested
+ * interfaces replace {@code $} with {@code _}, like {@code Outer_Service_LoggingEndpoints}.
+ */
+public abstract class GeneratedEndpoints {
+  static final String SUFFIX = "_LoggingEndpoints";
+
+  private static final GeneratedEndpoints NONE = new GeneratedEndpoints() {
+  };
+
+  private static final ClassValue<GeneratedEndpoints> tables =
+      new ClassValue<GeneratedEndpoints>() {
+        @Override protected GeneratedEndpoints computeValue(Class<?> service) {
+          String name = tableName(service.getName());
+          try {
+            Class<?> table = Class.forName(name, true, service.getClassLoader());
+            return (GeneratedEndpoints) table.getDeclaredConstructor().newInstance();
+          } catch (ClassNotFoundException e) {
+            return NONE;
+          } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalStateException("Unable to create " + name, e);
+          }
+        }
+      };
+
+  private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+  protected GeneratedEndpoints() {
+  }
+
+  /**
+   * Records the parameters of a service method. {@code key} is the method name followed by the
+   * parenthesized, comma-separated {@linkplain Class#getTypeName() type names} of its parameters.
+   * Parameters that are absent have an index of -1.
+   */
+  protected final void method(String key, int bodyIndex, String[] pathNames, int[] pathIndices,
+      String[] queryNames, int[] queryIndices, String[] headerNames, int[] headerIndices) {
+    entries.put(key, new Entry(bodyIndex, pathNames, pathIndices, queryNames, queryIndices,
+        headerNames, headerIndices));
+  }
+
+  /** Returns the name of the generated table for the service interface's binary name. */
+  static String tableName(String serviceName) {
+    int packageEnd = serviceName.lastIndexOf('.') + 1;
+    return serviceName.substring(0, packageEnd)
+        + serviceName.substring(packageEnd).replace('$', '_')
+        + SUFFIX;
+  }
+
+  /**
+   * Returns the generated parameters of the service method, or null if its interface has no
+   * generated table.
+   */
+  static Endpoint.Parameters parameters(Method method) {
+    GeneratedEndpoints table = tables.get(method.getDeclaringClass());
+    if (table == NONE) {
+      return null;
+    }
+    Entry entry = table.entries.get(key(method));
+    if (entry == null) {
+      return null;
+    }
+    return new Endpoint.Parameters(method, entry.bodyIndex, entry.pathNames, entry.pathIndices,
+        entry.queryNames, entry.queryIndices, entry.headerNames, entry.headerIndices);
+  }
+
+  static String key(Method method) {
+    StringBuilder key = new StringBuilder(method.getName()).append('(');
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    for (int i = 0; i < parameterTypes.length; i++) {
+      if (i != 0) {
+        key.append(',');
+      }
+      key.append(parameterTypes[i].getTypeName());
+    }
+    return key.append(')').toString();
+  }
+
+  private static final class Entry {
+    final int bodyIndex;
+    final String[] pathNames;
+    final int[] pathIndices;
+    final String[] queryNames;
+    final int[] queryIndices;
+    final String[] headerNames;
+    final int[] headerIndices;
+
+    Entry(int bodyIndex, String[] pathNames, int[] pathIndices, String[] queryNames,
+        int[] queryIndices, String[] headerNames, int[] headerIndices) {
+      this.bodyIndex = bodyIndex;
+      this.pathNames = pathNames;
+      this.pathIndices = pathIndices;
+      this.queryNames = queryNames;
+      this.queryIndices = queryIndices;
+      this.headerNames = headerNames;
+      this.headerIndices = headerIndices;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A log-linear histogram of call latencies in nanoseconds. Each power of two is split into
+ * {@link #SUB_BUCKET_COUNT} linear buckets, so a recorded value is at most 12.5% from the value
+ * reported for its bucket. Values of {@link #MAX_VALUE} and above share the last bucket.
+ * <p>Threads record into one of several stripes picked by thread ID, so threads completing calls
+ * concurrently rarely increment the same counter. Recording does not lock or allocate.
+ */
+final class LatencyHistogram {
+  static final int SUB_BUCKET_BITS = 3;
+  static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  /** The largest power of two with its own buckets. 2^41 nanoseconds is about 36 minutes. */
+  static final int MAX_EXPONENT = 40;
+  static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+  static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+  static final int MAX_STRIPES = 8;
+
+  final AtomicLongArray counts;
+  final int stripeMask;
+
+  LatencyHistogram() {
+    int processors = Runtime.getRuntime().availableProcessors();
+    int stripes = Math.min(Integer.highestOneBit(processors - 1) << 1, MAX_STRIPES);
+    if (stripes <= 0) {
+      stripes = 1;
+    }
+    counts = new AtomicLongArray(stripes * BUCKET_COUNT);
+    stripeMask = stripes - 1;
+  }
+
+  void record(long nanos) {
+    int stripe = (int) Thread.currentThread().getId() & stripeMask;
+    counts.incrementAndGet(stripe * BUCKET_COUNT + bucket(nanos));
+  }
+
+  void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+  }
+
+  /** Sums the stripes. Concurrent recordings may or may not be included. */
+  LatencySnapshot snapshot() {
+    long[] buckets = new long[BUCKET_COUNT];
+    sumInto(buckets);
+    return new LatencySnapshot(buckets);
+  }
+
+  /** Overwrites {@code buckets} with the sums of the stripes, and returns their total. */
+  long sumInto(long[] buckets) {
+    long total = 0;
+    for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+      long count = 0;
+      for (int i = bucket; i < counts.length(); i += BUCKET_COUNT) {
+        count += counts.get(i);
+      }
+      buckets[bucket] = count;
+      total += count;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the value that {@code percentile} percent of the {@code total} recorded values did not
+   * exceed, or 0 if none were recorded.
+   */
+  static long valueAtPercentile(long[] buckets, long total, double percentile) {
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        return highestValue(i);
+      }
+    }
+    return highestValue(buckets.length - 1);
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return value < 0 ? 0 : (int) value;
+    }
+    if (value > MAX_VALUE) {
+      value = MAX_VALUE;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /** Returns the largest value recorded into the bucket. */
+  static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKET_COUNT - 1;
+    long lowest = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,193 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * A snapshot of the latencies of an endpoint's calls, from the start of
+ * {@link retrofit2.Call#execute} or {@link retrofit2.Call#enqueue} to the response or failure.
+ * Reported values are in nanoseconds and are at most 12.5% higher than the recorded values.
+ * <p>Snapshots from many processes can be combined exactly. Each process
+ * {@linkplain #writeTo writes} its snapshots, and an aggregator {@linkplain #read reads} and
+ * {@linkplain #merge merges} them. The fleet-wide percentiles of the merged snapshot have the same
+ * accuracy as the percentiles of a single process.
+ * @see LoggingCallAdapterFactory#latencySnapshots()
+ */
+public final class LatencySnapshot {
+  static final int FORMAT_VERSION = 1;
+
+  final long[] buckets;
+  final long count;
+
+  LatencySnapshot(long[] buckets) {
+    this.buckets = buckets;
+    long count = 0;
+    for (long bucket : buckets) {
+      count += bucket;
+    }
+    this.count = count;
+  }
+
+  /** The number of calls recorded. */
+  public long count() {
+    return count;
+  }
+
+  /**
+   * Returns the latency in nanoseconds that {@code percentile} percent of the calls did not
+   * exceed, or 0 if no calls were recorded.
+   */
+  public long valueAtPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile < 0 || percentile > 100: " + percentile);
+    }
+    return LatencyHistogram.valueAtPercentile(buckets, count, percentile);
+  }
+
+  public long p50() {
+    return valueAtPercentile(50);
+  }
+
+  public long p90() {
+    return valueAtPercentile(90);
+  }
+
+  public long p99() {
+    return valueAtPercentile(99);
+  }
+
+  public long p999() {
+    return valueAtPercentile(99.9);
+  }
+
+  /**
+   * Returns the upper bound of the bucket of the largest latency recorded, or 0 if no calls were
+   * recorded. Like the percentiles, it may be up to 12.5% higher than the largest latency itself:
+   * snapshots keep only bucket counts, so they merge exactly, and the exact maximum is not kept.
+   */
+  public long max() {
+    return valueAtPercentile(100);
+  }
+
+  /** Returns a snapshot of the calls recorded in this snapshot and in {@code other}. */
+  public LatencySnapshot merge(LatencySnapshot other) {
+    if (other == null) throw new NullPointerException("other == null");
+    long[] buckets = this.buckets.clone();
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] += other.buckets[i];
+    }
+    return new LatencySnapshot(buckets);
+  }
+
+  /**
+   * Writes this snapshot in a compact binary format. Only buckets with recorded calls are written,
+   * each as a variable-length bucket gap and count, so a typical snapshot takes tens of bytes.
+   */
+  public void writeTo(BufferedSink sink) throws IOException {
+    int nonEmpty = 0;
+    for (long bucket : buckets) {
+      if (bucket != 0) {
+        nonEmpty++;
+      }
+    }
+    sink.writeByte(FORMAT_VERSION);
+    sink.writeByte(LatencyHistogram.SUB_BUCKET_BITS);
+    sink.writeByte(LatencyHistogram.MAX_EXPONENT);
+    writeVarint(sink, nonEmpty);
+    int previous = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      if (buckets[i] != 0) {
+        writeVarint(sink, i - previous);
+        writeVarint(sink, buckets[i]);
+        previous = i;
+      }
+    }
+  }
+
+  /** Returns this snapshot in the format of {@link #writeTo}. */
+  public ByteString toByteString() {
+    Buffer buffer = new Buffer();
+    try {
+      writeTo(buffer);
+    } catch (IOException e) {
+      throw new AssertionError(e); // Buffers do not throw.
+    }
+    return buffer.readByteString();
+  }
+
+  /** Reads a snapshot written by {@link #writeTo}. */
+  public static LatencySnapshot read(BufferedSource source) throws IOException {
+    int version = source.readByte() & 0xff;
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported latency snapshot version: " + version);
+    }
+    int subBucketBits = source.readByte() & 0xff;
+    int maxExponent = source.readByte() & 0xff;
+    if (subBucketBits != LatencyHistogram.SUB_BUCKET_BITS
+        || maxExponent != LatencyHistogram.MAX_EXPONENT) {
+      throw new IOException("Unsupported latency snapshot buckets: "
+          + subBucketBits + " sub-bucket bits, max exponent " + maxExponent);
+    }
+    long[] buckets = new long[LatencyHistogram.BUCKET_COUNT];
+    long nonEmpty = readVarint(source);
+    int bucket = 0;
+    for (long i = 0; i < nonEmpty; i++) {
+      long gap = readVarint(source);
+      if (gap > buckets.length - 1 - bucket || (i != 0 && gap == 0)) {
+        throw new IOException("Invalid latency snapshot bucket gap: " + gap);
+      }
+      bucket += (int) gap;
+      buckets[bucket] = readVarint(source);
+    }
+    return new LatencySnapshot(buckets);
+  }
+
+  /** Like {@link #read(BufferedSource)}, but throws IllegalArgumentException if it is malformed. */
+  public static LatencySnapshot of(ByteString byteString) {
+    try {
+      return read(new Buffer().write(byteString));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Malformed latency snapshot: " + e.getMessage(), e);
+    }
+  }
+
+  /** Writes an unsigned LEB128 varint. */
+  private static void writeVarint(BufferedSink sink, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      sink.writeByte((int) (value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    sink.writeByte((int) value);
+  }
+
+  private static long readVarint(BufferedSource source) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = source.readByte();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Invalid latency snapshot varint.");
+  }
+
+  @Override public String toString() {
+    return "LatencySnapshot{"
+        + "count=" + count
+        + ", p50=" + millis(p50())
+        + ", p90=" + millis(p90())
+        + ", p99=" + millis(p99())
+        + ", p999=" + millis(p999())
+        + ", max=" + millis(max())
+        + '}';
+  }
+
+  private static String millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+  }
+}
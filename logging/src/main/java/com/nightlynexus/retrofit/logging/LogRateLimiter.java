@@ -0,0 +1,186 @@
+package com.nightlynexus.retrofit.logging;
+
+import com.nightlynexus.retrofit.logging.LoggingCallAdapterFactory.Logger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the events given to the logger with a token bucket for each service method and status
+ * class of its responses, and one for each service method and failure class.
+ * <p>When a bucket lets an event through after suppressing others, the logger is first told how
+ * many were suppressed. Every {@linkplain #SUMMARY_INTERVAL_NANOS summary interval}, the factory
+ * also {@linkplain #summarizeIfDue reports} what every bucket suppressed since its last report, so
+ * the summary of a storm that has ended does not wait for the next similar event.
+ * <p>Reports are given to the logger through an executor, which runs them on the factory's logging
+ * threads if it logs asynchronously.
+ */
+final class LogRateLimiter {
+  static final long SUMMARY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  /** The status classes 1xx to 5xx, and other status codes. */
+  static final int STATUS_CLASS_COUNT = 6;
+
+  final Logger logger;
+  final Executor reports;
+  final long intervalNanos;
+  final long toleranceNanos;
+  private final List<Buckets> allBuckets = new ArrayList<>();
+  private final ReentrantLock summaryLock = new ReentrantLock();
+  private volatile long nextSummaryNanos;
+
+  LogRateLimiter(Logger logger, Executor reports, double eventsPerSecond, int burst) {
+    this.logger = logger;
+    this.reports = reports;
+    this.intervalNanos = Math.max(1, (long) (1e9 / eventsPerSecond));
+    this.toleranceNanos = intervalNanos * (burst - 1);
+    this.nextSummaryNanos = System.nanoTime() + SUMMARY_INTERVAL_NANOS;
+  }
+
+  void register(Endpoint endpoint) {
+    Buckets buckets = new Buckets(endpoint);
+    synchronized (allBuckets) {
+      allBuckets.add(buckets);
+    }
+    endpoint.rateLimits = buckets;
+  }
+
+  /** Returns true if the response is logged. */
+  boolean tryAcquireResponse(Endpoint endpoint, int code, long nanos) {
+    int statusClass = statusClass(code);
+    TokenBucket bucket = endpoint.rateLimits.responses[statusClass == 0 ? 5 : statusClass - 1];
+    return tryAcquire(endpoint, statusClass, null, bucket, nanos);
+  }
+
+  /** Returns true if the failure is logged. */
+  boolean tryAcquireFailure(Endpoint endpoint, Throwable t, long nanos) {
+    ConcurrentHashMap<Class<?>, TokenBucket> failures = endpoint.rateLimits.failures;
+    Class<? extends Throwable> failureClass = t.getClass();
+    TokenBucket bucket = failures.get(failureClass);
+    if (bucket == null) {
+      // Checked with get first, because computeIfAbsent locks even if the key is present.
+      bucket = failures.computeIfAbsent(failureClass, key -> new TokenBucket(nanos));
+    }
+    return tryAcquire(endpoint, -1, failureClass, bucket, nanos);
+  }
+
+  /** Returns the hundreds digit of the status code from 1 to 5, or 0 for other codes. */
+  static int statusClass(int code) {
+    return code >= 100 && code < 600 ? code / 100 : 0;
+  }
+
+  private boolean tryAcquire(Endpoint endpoint, int statusClass,
+      Class<? extends Throwable> failureClass, TokenBucket bucket, long nanos) {
+    if (!bucket.tryAcquire(nanos)) {
+      bucket.suppressed.increment();
+      return false;
+    }
+    report(endpoint, statusClass, failureClass, bucket);
+    return true;
+  }
+
+  private void report(Endpoint endpoint, int statusClass, Class<? extends Throwable> failureClass,
+      TokenBucket bucket) {
+    long suppressedCount = bucket.takeUnreported();
+    if (suppressedCount != 0) {
+      reports.execute(
+          () -> logger.onSuppressed(endpoint, statusClass, failureClass, suppressedCount));
+    }
+  }
+
+  /** Reports what every bucket suppressed if the summary interval has ended. */
+  void summarizeIfDue(long nanos) {
+    if (nanos - nextSummaryNanos >= 0 && summaryLock.tryLock()) {
+      try {
+        if (nanos - nextSummaryNanos >= 0) {
+          nextSummaryNanos = nanos + SUMMARY_INTERVAL_NANOS;
+          flush();
+        }
+      } finally {
+        summaryLock.unlock();
+      }
+    }
+  }
+
+  /** Reports the events suppressed since each bucket last reported. */
+  void flush() {
+    Buckets[] snapshot;
+    synchronized (allBuckets) {
+      snapshot = allBuckets.toArray(new Buckets[0]);
+    }
+    for (Buckets buckets : snapshot) {
+      for (int i = 0; i < STATUS_CLASS_COUNT; i++) {
+        report(buckets.endpoint, i == 5 ? 0 : i + 1, null, buckets.responses[i]);
+      }
+      for (Map.Entry<Class<?>, TokenBucket> entry : buckets.failures.entrySet()) {
+        @SuppressWarnings("unchecked") // Only failure classes are keys.
+        Class<? extends Throwable> failureClass = (Class<? extends Throwable>) entry.getKey();
+        report(buckets.endpoint, -1, failureClass, entry.getValue());
+      }
+    }
+  }
+
+  /** The token buckets of a service method. */
+  final class Buckets {
+    final Endpoint endpoint;
+    /** Indexed by status class, 1xx to 5xx, then other status codes. */
+    final TokenBucket[] responses = new TokenBucket[STATUS_CLASS_COUNT];
+    final ConcurrentHashMap<Class<?>, TokenBucket> failures = new ConcurrentHashMap<>();
+
+    Buckets(Endpoint endpoint) {
+      this.endpoint = endpoint;
+      long nanos = System.nanoTime();
+      for (int i = 0; i < STATUS_CLASS_COUNT; i++) {
+        responses[i] = new TokenBucket(nanos);
+      }
+    }
+  }
+
+  /**
+   * A token bucket kept as the time at which it would be full again, so taking a token is a
+   * single compare-and-set, and a suppressed event only reads the time.
+   */
+  final class TokenBucket {
+    /** When the bucket is full again, if no more tokens are taken. */
+    final AtomicLong fullAt;
+    final LongAdder suppressed = new LongAdder();
+    /** The suppressed events already reported. */
+    final AtomicLong reported = new AtomicLong();
+
+    TokenBucket(long nanos) {
+      this.fullAt = new AtomicLong(nanos);
+    }
+
+    boolean tryAcquire(long nanos) {
+      while (true) {
+        long fullAt = this.fullAt.get();
+        long start = fullAt - nanos < 0 ? nanos : fullAt;
+        if (start - nanos > toleranceNanos) {
+          return false;
+        }
+        if (this.fullAt.compareAndSet(fullAt, start + intervalNanos)) {
+          return true;
+        }
+      }
+    }
+
+    /** Returns the suppressed events that have not been reported yet, and marks them reported. */
+    long takeUnreported() {
+      long total = suppressed.sum();
+      while (true) {
+        long reported = this.reported.get();
+        if (total <= reported) {
+          return 0;
+        }
+        if (this.reported.compareAndSet(reported, total)) {
+          return total - reported;
+        }
+      }
+    }
+  }
+}
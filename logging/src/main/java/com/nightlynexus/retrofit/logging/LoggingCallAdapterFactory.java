@@ -1,14 +1,24 @@
 package com.nightlynexus.retrofit.logging;
 
-import java.io.EOFException;
+import java.io.Closeable;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
-import java.lang.reflect.Parameter;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.ResponseBody;
 import okio.Buffer;
 import okio.BufferedSource;
+import okio.ByteString;
+import okio.Options;
 import okio.Timeout;
 import retrofit2.Call;
 import retrofit2.CallAdapter;
@@ -17,31 +27,428 @@ import retrofit2.Invocation;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.http.Body;
+import retrofit2.http.Header;
+import retrofit2.http.Path;
+import retrofit2.http.Query;
+
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static java.nio.charset.StandardCharsets.UTF_16LE;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * A CallAdapter.Factory that intercepts calls' synchronous executions and asynchronously called
  * callbacks and logs the responses and failures to the given {@link Logger}.
  */
-public final class LoggingCallAdapterFactory extends CallAdapter.Factory {
+public final class LoggingCallAdapterFactory extends CallAdapter.Factory implements Closeable {
   /**
    * A logger for the results of calls.
-   * <p>Note that these logger methods are called on the thread provided by OkHttp's dispatcher.
+   * <p>Note that these logger methods are called on the thread provided by OkHttp's dispatcher,
+   * or on the factory's own logging threads if it was built with {@link Builder#async}. That
+   * includes the reports of suppressed events and of error bursts.
    * It is an error to mutate the call from these methods.
    */
   public interface Logger {
     <T> void onResponse(Call<T> call, Response<T> response);
 
     <T> void onFailure(Call<T> call, Throwable t);
+
+    /**
+     * Called with the number of the service method's events that the {@linkplain Builder#rateLimit
+     * rate limit} suppressed: before the next of these events is logged, about once a second while
+     * calls complete, and when the factory is {@linkplain LoggingCallAdapterFactory#close closed}.
+     * For suppressed responses, {@code statusClass} is the hundreds digit of their status codes,
+     * from 1 to 5, or 0 for other status codes, and {@code failureClass} is null. For suppressed
+     * failures, {@code statusClass} is -1 and {@code failureClass} is their class.
+     */
+    default void onSuppressed(Endpoint endpoint, int statusClass,
+        Class<? extends Throwable> failureClass, long count) {
+    }
+
+    /**
+     * Called with the repeats of an error that were {@linkplain Builder#deduplicateErrors
+     * deduplicated}, once the burst's window has ended or the factory is
+     * {@linkplain LoggingCallAdapterFactory#close closed}.
+     */
+    default void onErrorBurst(ErrorBurst burst) {
+    }
+  }
+
+  /**
+   * Decides which of each service method's successful calls are given to the {@link Logger}: a
+   * random sample, and the calls slower than a threshold. Failures and responses with other status
+   * codes are always logged.
+   * @see Builder#sampler
+   */
+  public interface Sampler {
+    /**
+     * Returns the sample rate for the service method, from 0 to 1. Called once per service method,
+     * when Retrofit creates its call adapter.
+     */
+    double sampleRate(Endpoint endpoint);
+
+    /**
+     * Returns the shortest duration of the service method's successful calls that are logged even
+     * if they are not in the sample. Called once per service method, when Retrofit creates its call
+     * adapter. {@link Long#MAX_VALUE}, the default, logs no calls outside of the sample.
+     */
+    default long slowCallThresholdNanos(Endpoint endpoint) {
+      return Long.MAX_VALUE;
+    }
   }
 
   final Logger logger;
+  final Sampler sampler;
+  final AdaptiveSampler adaptiveSampler;
+  final LogRateLimiter rateLimiter;
+  final ErrorDeduplicator errorDeduplicator;
+  // Changed at runtime through the MBean.
+  volatile long errorBodyCaptureLimit;
+  final CaptureBudget captureBudget;
+  final AsyncDispatcher asyncDispatcher;
+  final Metrics metrics;
+  final boolean flightRecorderEvents;
+  final ObjectName mbeanName;
+  /** The endpoints by their service methods' annotations. */
+  final ConcurrentHashMap<List<Annotation>, Endpoint> endpoints = new ConcurrentHashMap<>();
 
   public LoggingCallAdapterFactory(Logger logger) {
-    this.logger = logger;
+    this(new Builder(logger));
+  }
+
+  LoggingCallAdapterFactory(Builder builder) {
+    this.logger = builder.logger;
+    this.sampler = builder.sampler;
+    this.adaptiveSampler = builder.adaptiveEventsPerSecond == 0
+        ? null
+        : new AdaptiveSampler(builder.adaptiveEventsPerSecond);
+    this.rateLimiter = builder.rateLimitEventsPerSecond == 0
+        ? null
+        : new LogRateLimiter(logger, this::report, builder.rateLimitEventsPerSecond,
+            builder.rateLimitBurst);
+    this.errorDeduplicator = builder.deduplicationWindowNanos == 0
+        ? null
+        : new ErrorDeduplicator(logger, this::report, builder.deduplicationWindowNanos);
+    this.errorBodyCaptureLimit = builder.errorBodyCaptureLimit;
+    this.captureBudget = builder.captureBudget == Long.MAX_VALUE
+        ? null
+        : new CaptureBudget(builder.captureBudget);
+    this.asyncDispatcher = builder.asyncCapacity == 0
+        ? null
+        : new AsyncDispatcher(this, builder.asyncCapacity, builder.asyncConsumerCount,
+            builder.waitStrategy, builder.overflowPolicy, builder.overflowBlockTimeoutNanos);
+    this.metrics = builder.metrics ? new Metrics() : null;
+    this.flightRecorderEvents = builder.flightRecorderEvents;
+    ObjectName mbeanName = null;
+    if (builder.mbeanName != null) {
+      try {
+        mbeanName = FactoryMXBean.register(this, builder.mbeanName);
+      } catch (RuntimeException e) {
+        // Don't leak the logging threads of a factory that is never returned.
+        if (asyncDispatcher != null) {
+          asyncDispatcher.close();
+        }
+        throw e;
+      }
+    }
+    this.mbeanName = mbeanName;
+  }
+
+  public static final class Builder {
+    final Logger logger;
+    Sampler sampler;
+    double adaptiveEventsPerSecond;
+    double rateLimitEventsPerSecond;
+    int rateLimitBurst;
+    long deduplicationWindowNanos;
+    long errorBodyCaptureLimit = Long.MAX_VALUE;
+    long captureBudget = Long.MAX_VALUE;
+    int asyncCapacity;
+    int asyncConsumerCount;
+    WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+    OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    long overflowBlockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    boolean metrics;
+    boolean flightRecorderEvents;
+    String mbeanName;
+
+    public Builder(Logger logger) {
+      if (logger == null) throw new NullPointerException("logger == null");
+      this.logger = logger;
+    }
+
+    /**
+     * Logs a random sample of each service method's successful calls, at the rate the sampler
+     * returns for the service method. Whether a call is logged is decided when it is executed or
+     * enqueued. Failures, responses with other status codes, and calls slower than the sampler's
+     * threshold are always logged. Metrics count every call, and the calls that were not logged.
+     * All calls are logged by default.
+     */
+    public Builder sampler(Sampler sampler) {
+      if (sampler == null) throw new NullPointerException("sampler == null");
+      this.sampler = sampler;
+      return this;
+    }
+
+    /** Like {@link #sampler}, with the same sample rate for every service method. */
+    public Builder sampleRate(double rate) {
+      checkSampleRate(rate);
+      return sampler(endpoint -> rate);
+    }
+
+    /**
+     * Like {@link #sampleRate}, but also logs every successful call that takes at least
+     * {@code slowCallThreshold}, so the slow calls that a random sample would miss are kept.
+     */
+    public Builder tailSampling(double sampleRate, long slowCallThreshold, TimeUnit unit) {
+      checkSampleRate(sampleRate);
+      if (slowCallThreshold < 0) {
+        throw new IllegalArgumentException("slowCallThreshold < 0: " + slowCallThreshold);
+      }
+      if (unit == null) throw new NullPointerException("unit == null");
+      long slowCallThresholdNanos = unit.toNanos(slowCallThreshold);
+      return sampler(new Sampler() {
+        @Override public double sampleRate(Endpoint endpoint) {
+          return sampleRate;
+        }
+
+        @Override public long slowCallThresholdNanos(Endpoint endpoint) {
+          return slowCallThresholdNanos;
+        }
+      });
+    }
+
+    /**
+     * Adjusts each service method's sample rate every second, so about {@code eventsPerSecond}
+     * calls are logged per second in total. The errors and slow calls logged in the last second
+     * are taken out of the budget first, so during an outage fewer successful calls are logged,
+     * or none once the errors exceed the budget. The rest is shared evenly among the
+     * service methods, and service methods that need less than their share log all of their
+     * calls, so rarely called service methods are not starved. Use {@link #sampleRate(Call)} to
+     * weigh the logged calls. The sampler's slow call thresholds still apply, but its sample rates
+     * are replaced.
+     */
+    public Builder adaptiveSampling(double eventsPerSecond) {
+      if (!(eventsPerSecond > 0)) {
+        throw new IllegalArgumentException("eventsPerSecond <= 0: " + eventsPerSecond);
+      }
+      this.adaptiveEventsPerSecond = eventsPerSecond;
+      return this;
+    }
+
+    /**
+     * Logs at most {@code eventsPerSecond} of each service method's responses of each status class,
+     * and of each service method's failures of each class, allowing bursts of up to {@code burst}
+     * events. The logger's {@link Logger#onSuppressed} is told how many events were suppressed.
+     * Unlike sampling, this also limits failures and error responses, so an outage does not flood
+     * the logger with identical failures. Successful responses do not use up the tokens of error
+     * responses. Metrics still count every call.
+     */
+    public Builder rateLimit(double eventsPerSecond, int burst) {
+      if (!(eventsPerSecond > 0)) {
+        throw new IllegalArgumentException("eventsPerSecond <= 0: " + eventsPerSecond);
+      }
+      if (burst <= 0) throw new IllegalArgumentException("burst <= 0: " + burst);
+      this.rateLimitEventsPerSecond = eventsPerSecond;
+      this.rateLimitBurst = burst;
+      return this;
+    }
+
+    /**
+     * Logs only the first of the errors with the same fingerprint within {@code window}, and gives
+     * the logger's {@link Logger#onErrorBurst} the number of errors, their first and last times,
+     * and the first error as an exemplar once the window ends. A failure's fingerprint is its
+     * service method, its class and its top stack frames. An error response's fingerprint is its
+     * service method, its status code and the start of its {@linkplain #errorMessage error
+     * message}, ignoring digits, so messages that differ only by IDs or times are repeats. This
+     * bounds the logging work of an incident to one event per distinct error per window.
+     */
+    public Builder deduplicateErrors(long window, TimeUnit unit) {
+      if (window <= 0) throw new IllegalArgumentException("window <= 0: " + window);
+      if (unit == null) throw new NullPointerException("unit == null");
+      this.deduplicationWindowNanos = unit.toNanos(window);
+      return this;
+    }
+
+    /**
+     * Gives the logger at most {@code byteCount} bytes of each error body. The application still
+     * receives the complete error body. Use {@link #isErrorBodyTruncated} to find out whether the
+     * logger's error body was cut off. Unlimited by default.
+     */
+    public Builder errorBodyCaptureLimit(long byteCount) {
+      if (byteCount < 0) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+      this.errorBodyCaptureLimit = byteCount;
+      return this;
+    }
+
+    /**
+     * Limits the bytes of error bodies held for loggers across all of the factory's in-flight
+     * calls. Error bodies are read only as far as the budget allows. When less of the budget is
+     * left than an error body needs, the logger gets a truncated error body. When the budget is
+     * exhausted, the logger gets an empty error body, and {@link #isErrorBodyCaptureSkipped}
+     * returns true for it. Unlimited by default.
+     */
+    public Builder captureBudget(long byteCount) {
+      if (byteCount < 0) throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+      this.captureBudget = byteCount;
+      return this;
+    }
+
+    /**
+     * Logs from {@code consumerCount} dedicated threads instead of the threads that complete the
+     * calls. Call events wait in a pre-allocated ring of at least {@code capacity} events. The
+     * {@linkplain #overflowPolicy overflow policy} decides what happens when the ring is full.
+     * <p>Error bodies given to the logger are copies, so they remain readable after the
+     * application consumes the original. The copies are recycled, so they are only readable until
+     * the logger method returns.
+     */
+    public Builder async(int capacity, int consumerCount) {
+      if (capacity <= 0) throw new IllegalArgumentException("capacity <= 0: " + capacity);
+      if (consumerCount <= 0) {
+        throw new IllegalArgumentException("consumerCount <= 0: " + consumerCount);
+      }
+      this.asyncCapacity = capacity;
+      this.asyncConsumerCount = consumerCount;
+      return this;
+    }
+
+    /**
+     * How the {@linkplain #async asynchronous logging} threads wait for call events. Defaults to
+     * {@link WaitStrategy#BLOCKING}.
+     */
+    public Builder waitStrategy(WaitStrategy waitStrategy) {
+      if (waitStrategy == null) throw new NullPointerException("waitStrategy == null");
+      this.waitStrategy = waitStrategy;
+      return this;
+    }
+
+    /**
+     * What to do with call events when the {@linkplain #async asynchronous logging} ring is full.
+     * Defaults to {@link OverflowPolicy#DROP_NEWEST}, which never blocks the calling threads.
+     */
+    public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+      if (overflowPolicy == null) throw new NullPointerException("overflowPolicy == null");
+      this.overflowPolicy = overflowPolicy;
+      return this;
+    }
+
+    /**
+     * The longest time {@link OverflowPolicy#BLOCK} waits for room in the ring before dropping a
+     * call event. Defaults to 10 milliseconds.
+     */
+    public Builder overflowBlockTimeout(long timeout, TimeUnit unit) {
+      if (timeout < 0) throw new IllegalArgumentException("timeout < 0: " + timeout);
+      if (unit == null) throw new NullPointerException("unit == null");
+      this.overflowBlockTimeoutNanos = unit.toNanos(timeout);
+      return this;
+    }
+
+    /**
+     * Times and counts every call by its service method. Use {@link #latencySnapshots} and
+     * {@link #endpointStats} to read the metrics. Disabled by default.
+     */
+    public Builder metrics(boolean enabled) {
+      this.metrics = enabled;
+      return this;
+    }
+
+    /**
+     * Emits a Java Flight Recorder event named {@code com.nightlynexus.retrofit.logging.Call} for
+     * every call, with its endpoint, status code or exception class, duration, and body lengths.
+     * The events are recorded only while a recording enables them. Requires Java 11 or newer;
+     * on older versions this does nothing. Disabled by default.
+     */
+    public Builder flightRecorderEvents(boolean enabled) {
+      this.flightRecorderEvents = enabled;
+      return this;
+    }
+
+    /**
+     * Registers a {@link LoggingCallAdapterFactoryMXBean} for the factory with the platform MBean
+     * server, named {@code com.nightlynexus.retrofit.logging:type=LoggingCallAdapterFactory,name=}
+     * followed by the quoted {@code name}. {@link #close} unregisters it. The MBean reports call
+     * statistics if the factory {@linkplain #metrics records metrics}.
+     */
+    public Builder mbean(String name) {
+      if (name == null) throw new NullPointerException("name == null");
+      this.mbeanName = name;
+      return this;
+    }
+
+    public LoggingCallAdapterFactory build() {
+      return new LoggingCallAdapterFactory(this);
+    }
+  }
+
+  /**
+   * Returns a snapshot of the {@linkplain Builder#async asynchronous logging} counters, or null if
+   * this factory logs synchronously.
+   */
+  public AsyncStats asyncStats() {
+    return asyncDispatcher == null ? null : asyncDispatcher.stats();
+  }
+
+  /**
+   * Returns a snapshot of the {@linkplain Builder#captureBudget capture budget}, or null if this
+   * factory has none.
+   */
+  public CaptureBudgetStats captureBudgetStats() {
+    return captureBudget == null ? null : captureBudget.stats();
+  }
+
+  /**
+   * Returns a snapshot of the latencies of each service method's calls so far, or null if this
+   * factory does not {@linkplain Builder#metrics record metrics}. Service methods that have not
+   * been called yet may be absent.
+   */
+  public Map<Endpoint, LatencySnapshot> latencySnapshots() {
+    return metrics == null ? null : metrics.latencySnapshots();
+  }
+
+  /**
+   * Returns a snapshot of the counters of each service method's calls so far, or null if this
+   * factory does not {@linkplain Builder#metrics record metrics}. Service methods that have not
+   * been called yet may be absent.
+   */
+  public Map<Endpoint, EndpointStats> endpointStats() {
+    return metrics == null ? null : metrics.endpointStats();
+  }
+
+  /**
+   * Stops the {@linkplain Builder#async asynchronous logging} threads after they log the queued
+   * call events, waiting up to ten seconds for them. Call events that are still queued are then
+   * logged on the calling thread. Later call events are dropped. Reports the
+   * {@linkplain Builder#deduplicateErrors error bursts} in progress, and the events that the
+   * {@linkplain Builder#rateLimit rate limit} suppressed since the last ones were reported, on the
+   * calling thread. Unregisters the {@linkplain Builder#mbean MBean}.
+   */
+  @Override public void close() {
+    if (asyncDispatcher != null) {
+      asyncDispatcher.close();
+    }
+    if (errorDeduplicator != null) {
+      errorDeduplicator.sweep(System.nanoTime(), true);
+    }
+    if (rateLimiter != null) {
+      rateLimiter.flush();
+    }
+    if (mbeanName != null) {
+      FactoryMXBean.unregister(mbeanName);
+    }
   }
 
   public static Object UNBUILT_REQUEST_BODY = new Object();
 
+  static final Charset UTF_32BE = Charset.forName("UTF-32BE");
+  static final Charset UTF_32LE = Charset.forName("UTF-32LE");
+  // The order matches okhttp3.internal.Util.UNICODE_BOMS.
+  static final Options UNICODE_BOMS = Options.of(
+      ByteString.decodeHex("efbbbf"), // UTF-8
+      ByteString.decodeHex("feff"), // UTF-16BE
+      ByteString.decodeHex("fffe0000"), // UTF-32LE
+      ByteString.decodeHex("fffe"), // UTF-16LE
+      ByteString.decodeHex("0000feff") // UTF-32BE
+  );
+
   /**
    * @return
    * the object supplied to the {@link Body} Retrofit service method parameter,
@@ -49,6 +456,61 @@ public final class LoggingCallAdapterFactory extends CallAdapter.Factory {
    * {@link #UNBUILT_REQUEST_BODY} if the request failed to be built.
    */
   public static Object requestBody(Call<?> call) {
+    Invocation invocation = invocation(call);
+    if (invocation == null) {
+      return UNBUILT_REQUEST_BODY;
+    }
+    int index = parameters(call, invocation).bodyIndex;
+    return index == Endpoint.NO_BODY ? null : invocation.arguments().get(index);
+  }
+
+  /**
+   * @return
+   * the object supplied to the {@link Path} Retrofit service method parameter with the name,
+   * null if there is no such parameter, or
+   * {@link #UNBUILT_REQUEST_BODY} if the request failed to be built.
+   */
+  public static Object pathArgument(Call<?> call, String name) {
+    Invocation invocation = invocation(call);
+    if (invocation == null) {
+      return UNBUILT_REQUEST_BODY;
+    }
+    Endpoint.Parameters parameters = parameters(call, invocation);
+    return argument(invocation, parameters.pathNames, parameters.pathIndices, name);
+  }
+
+  /**
+   * @return
+   * the object supplied to the first {@link Query} Retrofit service method parameter with the
+   * name, null if there is no such parameter, or
+   * {@link #UNBUILT_REQUEST_BODY} if the request failed to be built.
+   */
+  public static Object queryArgument(Call<?> call, String name) {
+    Invocation invocation = invocation(call);
+    if (invocation == null) {
+      return UNBUILT_REQUEST_BODY;
+    }
+    Endpoint.Parameters parameters = parameters(call, invocation);
+    return argument(invocation, parameters.queryNames, parameters.queryIndices, name);
+  }
+
+  /**
+   * @return
+   * the object supplied to the first {@link Header} Retrofit service method parameter with the
+   * name, null if there is no such parameter, or
+   * {@link #UNBUILT_REQUEST_BODY} if the request failed to be built.
+   */
+  public static Object headerArgument(Call<?> call, String name) {
+    Invocation invocation = invocation(call);
+    if (invocation == null) {
+      return UNBUILT_REQUEST_BODY;
+    }
+    Endpoint.Parameters parameters = parameters(call, invocation);
+    return argument(invocation, parameters.headerNames, parameters.headerIndices, name);
+  }
+
+  /** Returns the call's Invocation, or null if the request failed to be built. */
+  private static Invocation invocation(Call<?> call) {
     Request request;
     try {
       // Build the request if it has not been built yet.
@@ -57,21 +519,48 @@ public final class LoggingCallAdapterFactory extends CallAdapter.Factory {
       if (isFatal(t)) {
         throw t;
       }
-      return UNBUILT_REQUEST_BODY;
+      return null;
     }
     Invocation invocation = request.tag(Invocation.class);
     if (invocation == null) {
       throw new NullPointerException("Missing Invocation tag. The custom Call.Factory needs " +
           "to create Calls with Requests that include the Invocation tag.");
     }
-    Parameter[] parameters = invocation.method().getParameters();
-    for (int i = 0; i < parameters.length; i++) {
-      Parameter parameter = parameters[i];
-      if (parameter.getAnnotation(Body.class) != null) {
-        return invocation.arguments().get(i);
-      }
-    }
-    return null;
+    return invocation;
+  }
+
+  private static Endpoint.Parameters parameters(Call<?> call, Invocation invocation) {
+    Endpoint endpoint = endpoint(call);
+    return endpoint != null
+        ? endpoint.parameters(invocation.method())
+        : Endpoint.Parameters.forMethod(invocation.method());
+  }
+
+  private static Object argument(Invocation invocation, String[] names, int[] indices,
+      String name) {
+    int index = Endpoint.Parameters.indexOf(names, indices, name);
+    return index == -1 ? null : invocation.arguments().get(index);
+  }
+
+  /**
+   * @return
+   * the description of the call's Retrofit service method, or
+   * null if the call was not created by a LoggingCallAdapterFactory.
+   */
+  public static Endpoint endpoint(Call<?> call) {
+    return call instanceof LoggingCall ? ((LoggingCall<?>) call).endpoint : null;
+  }
+
+  /**
+   * @return
+   * the probability that the call was logged, from 0 to 1, or
+   * 1 if the call was not created by a LoggingCallAdapterFactory.
+   * Weigh each logged call by the inverse of its sample rate to estimate totals from a
+   * {@linkplain Builder#sampler sample}. Failures, unsuccessful responses and slow calls are
+   * always logged, so their rate is 1.
+   */
+  public static double sampleRate(Call<?> call) {
+    return call instanceof LoggingCall ? ((LoggingCall<?>) call).sampleRate : 1;
   }
 
   /**
@@ -79,55 +568,338 @@ public final class LoggingCallAdapterFactory extends CallAdapter.Factory {
    * text. This is useful for logging error bodies. Consumes the {@code errorBody}.
    */
   public static String errorMessage(ResponseBody errorBody) throws IOException {
-    if (errorBody.contentLength() == 0) {
-      return "";
-    }
-    Buffer buffer = new Buffer();
-    buffer.writeAll(errorBody.source());
-    if (!isPlaintext(buffer)) {
-      return null;
-    }
-    // ResponseBody reads the BOM (if it exists) for us.
-    return ResponseBody.create(buffer, errorBody.contentType(), buffer.size()).string();
+    return errorMessage(errorBody, Long.MAX_VALUE).text;
   }
 
   /**
-   * Returns true if the body in question probably contains human readable text. Uses a small sample
-   * of code points to detect unicode control characters commonly used in binary file signatures.
+   * Reads at most {@code byteLimit} bytes of a {@link ResponseBody}. This is useful for logging
+   * error bodies that may be too large to hold in memory. Closes the {@code errorBody} without
+   * reading the rest of it.
    */
-  static boolean isPlaintext(Buffer buffer) {
+  public static ErrorMessage errorMessage(ResponseBody errorBody, long byteLimit)
+      throws IOException {
+    if (byteLimit < 0) throw new IllegalArgumentException("byteLimit < 0: " + byteLimit);
     try {
-      Buffer prefix = new Buffer();
-      long byteCount = buffer.size() < 64 ? buffer.size() : 64;
-      buffer.copyTo(prefix, 0, byteCount);
-      for (int i = 0; i < 16; i++) {
-        if (prefix.exhausted()) {
+      if (errorBody.contentLength() == 0) {
+        return new ErrorMessage("", false);
+      }
+      BufferedSource source = errorBody.source();
+      Buffer buffer = new Buffer();
+      while (buffer.size() < byteLimit) {
+        if (source.read(buffer, byteLimit - buffer.size()) == -1) {
           break;
         }
-        int codePoint = prefix.readUtf8CodePoint();
-        if (Character.isISOControl(codePoint) && !Character.isWhitespace(codePoint)) {
-          return false;
-        }
       }
-      return true;
-    } catch (EOFException e) {
-      return false; // Truncated UTF-8 sequence.
+      boolean truncated = (buffer.size() == byteLimit && !source.exhausted())
+          || isErrorBodyTruncated(errorBody);
+      if (!isPlaintext(buffer)) {
+        return new ErrorMessage(null, truncated);
+      }
+      MediaType contentType = errorBody.contentType();
+      Charset charset = contentType != null ? contentType.charset(UTF_8) : UTF_8;
+      // Like ResponseBody.string(), a byte order mark overrides the content type's charset.
+      switch (buffer.select(UNICODE_BOMS)) {
+        case 0:
+          charset = UTF_8;
+          break;
+        case 1:
+          charset = UTF_16BE;
+          break;
+        case 2:
+          charset = UTF_32LE;
+          break;
+        case 3:
+          charset = UTF_16LE;
+          break;
+        case 4:
+          charset = UTF_32BE;
+          break;
+        default:
+          break;
+      }
+      if (truncated && charset == UTF_8) {
+        // Do not decode a code point that was cut off at the limit.
+        return new ErrorMessage(buffer.readString(completeUtf8Size(buffer), UTF_8), true);
+      }
+      return new ErrorMessage(buffer.readString(charset), truncated);
+    } finally {
+      errorBody.close();
+    }
+  }
+
+  /**
+   * Returns true if the error body given to the logger is a prefix of the complete error body
+   * because of the {@linkplain Builder#errorBodyCaptureLimit capture limit} or the
+   * {@linkplain Builder#captureBudget capture budget}.
+   */
+  public static boolean isErrorBodyTruncated(ResponseBody errorBody) {
+    return errorBody instanceof CapturedErrorBody && ((CapturedErrorBody) errorBody).truncated;
+  }
+
+  /**
+   * Returns true if the error body given to the logger is empty because the
+   * {@linkplain Builder#captureBudget capture budget} was exhausted.
+   */
+  public static boolean isErrorBodyCaptureSkipped(ResponseBody errorBody) {
+    return errorBody instanceof CapturedErrorBody && ((CapturedErrorBody) errorBody).skipped;
+  }
+
+  /**
+   * Copies at most the capture limit of the source into the sink without consuming it. Okio shares
+   * the segments between the buffers, so this does not copy the bytes. The bytes are reserved from
+   * the capture budget before the source is read, and the source is asked for only one byte more,
+   * to detect truncation. Returns the number of bytes reserved, or -1 if the budget is exhausted
+   * and the source was not read. The source's buffer holds more bytes than
+   * were copied if the error body was truncated.
+   */
+  long captureErrorBody(BufferedSource source, Buffer sink) {
+    long limit = errorBodyCaptureLimit;
+    if (captureBudget != null && limit != 0) {
+      limit = captureBudget.reserve(limit);
+      if (limit == 0) {
+        return -1;
+      }
     }
+    try {
+      source.request(limit == Long.MAX_VALUE ? limit : limit + 1);
+    } catch (IOException ignored) {
+      // The application sees this failure when it reads the error body.
+    }
+    Buffer buffer = source.getBuffer();
+    long byteCount = Math.min(buffer.size(), limit);
+    if (captureBudget != null) {
+      // Return the part of the reservation that the error body did not need.
+      captureBudget.release(limit - byteCount);
+    }
+    buffer.copyTo(sink, 0, byteCount);
+    return byteCount;
+  }
+
+  void releaseCapture(long reservedBytes) {
+    if (captureBudget != null) {
+      captureBudget.release(reservedBytes);
+    }
+  }
+
+  /** Returns the size of the buffer's prefix that does not end in a partial UTF-8 code point. */
+  static long completeUtf8Size(Buffer buffer) {
+    long size = buffer.size();
+    // Look for the lead byte of the last code point. Code points are at most 4 bytes.
+    for (long i = size - 1; i >= 0 && i >= size - 4; i--) {
+      int b = buffer.getByte(i) & 0xff;
+      if ((b & 0xc0) == 0x80) {
+        continue; // Continuation byte.
+      }
+      int length = b < 0x80 ? 1 : b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : b >= 0xc0 ? 2 : 1;
+      return i + length <= size ? size : i;
+    }
+    return size;
+  }
+
+  /**
+   * Returns true if the body in question probably contains human readable text. Uses a small sample
+   * of code points to detect unicode control characters commonly used in binary file signatures.
+   * Inspects the buffer in place without consuming it.
+   */
+  public static boolean isPlaintext(Buffer buffer) {
+    return Plaintext.isPlaintext(buffer);
+  }
+
+  /**
+   * Like {@link #isPlaintext(Buffer)}, but buffers the sample from the source first. Does not
+   * consume the source.
+   */
+  public static boolean isPlaintext(BufferedSource source) throws IOException {
+    source.request(Plaintext.SAMPLE_BYTE_COUNT);
+    return Plaintext.isPlaintext(source.getBuffer());
+  }
+
+  /** Like {@link #isPlaintext(Buffer)}, but for a byte string. */
+  public static boolean isPlaintext(ByteString byteString) {
+    return Plaintext.isPlaintext(byteString);
   }
 
   @Override
   public CallAdapter<?, ?> get(Type returnType, Annotation[] annotations, Retrofit retrofit) {
     CallAdapter<?, ?> delegate = retrofit.nextCallAdapter(this, returnType, annotations);
-    return new LoggingCallAdapter<>(delegate, logger);
+    // Apps that create a Retrofit per user or per request ask for the same service methods again.
+    // Reuse their endpoints, so their metrics and sampling state are not registered again.
+    Endpoint endpoint = endpoints.computeIfAbsent(Arrays.asList(annotations),
+        key -> newEndpoint(annotations));
+    return new LoggingCallAdapter<>(delegate, this, endpoint);
+  }
+
+  private Endpoint newEndpoint(Annotation[] annotations) {
+    Endpoint endpoint = metrics == null
+        ? new Endpoint(annotations, -1, null)
+        : metrics.register(annotations);
+    if (sampler != null) {
+      double sampleRate = sampler.sampleRate(endpoint);
+      checkSampleRate(sampleRate);
+      endpoint.sampleRate = sampleRate;
+      long slowCallThresholdNanos = sampler.slowCallThresholdNanos(endpoint);
+      if (slowCallThresholdNanos < 0) {
+        throw new IllegalArgumentException(
+            "slowCallThresholdNanos < 0: " + slowCallThresholdNanos);
+      }
+      endpoint.slowCallThresholdNanos = slowCallThresholdNanos;
+    }
+    if (adaptiveSampler != null) {
+      adaptiveSampler.register(endpoint);
+    }
+    if (rateLimiter != null) {
+      rateLimiter.register(endpoint);
+    }
+    return endpoint;
+  }
+
+  static void checkSampleRate(double rate) {
+    if (!(rate >= 0 && rate <= 1)) {
+      throw new IllegalArgumentException("rate < 0 || rate > 1: " + rate);
+    }
+  }
+
+  void onStart(LoggingCall<?> call) {
+    if (metrics != null) {
+      metrics.inFlight.increment();
+    }
+    if (adaptiveSampler != null) {
+      adaptiveSampler.onStart(call.endpoint, call.startNanos);
+    }
+    double sampleRate = call.endpoint.sampleRate;
+    call.sampleRate = sampleRate;
+    call.sampled = sampleRate >= 1
+        || sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+
+  /** Ends a started call that will not complete with a response or a failure. */
+  void onAbort(LoggingCall<?> call) {
+    if (metrics != null) {
+      metrics.inFlight.decrement();
+    }
+  }
+
+  /**
+   * Gives the logger the periodic reports that are due. Called as calls complete, or by the
+   * logging threads if the factory logs asynchronously, so the threads completing calls do not run
+   * the reports.
+   */
+  void reportIfDue(long nanos) {
+    if (errorDeduplicator != null) {
+      errorDeduplicator.sweepIfDue(nanos);
+    }
+    if (rateLimiter != null) {
+      rateLimiter.summarizeIfDue(nanos);
+    }
+  }
+
+  /** Runs the report for the logger, on a logging thread if the factory logs asynchronously. */
+  void report(Runnable report) {
+    if (asyncDispatcher != null) {
+      asyncDispatcher.dispatchReport(report);
+    } else {
+      report.run();
+    }
+  }
+
+  <R> void onResponse(LoggingCall<R> call, Response<R> response) {
+    Endpoint endpoint = call.endpoint;
+    long nanos = System.nanoTime();
+    if (asyncDispatcher == null) {
+      reportIfDue(nanos);
+    }
+    long durationNanos = nanos - call.startNanos;
+    if (metrics != null) {
+      metrics.recordResponse(endpoint, durationNanos, response);
+    }
+    if (flightRecorderEvents) {
+      FlightRecorderEvents.response(endpoint, durationNanos, response);
+    }
+    boolean alwaysLogged =
+        !response.isSuccessful() || durationNanos >= endpoint.slowCallThresholdNanos;
+    if (!call.sampled && !alwaysLogged) {
+      if (metrics != null) {
+        metrics.recordUnlogged(endpoint);
+      }
+      return;
+    }
+    if (alwaysLogged) {
+      // Logged regardless of the sample.
+      call.sampleRate = 1;
+    }
+    ErrorDeduplicator.Burst burst = null;
+    if (errorDeduplicator != null && !response.isSuccessful()) {
+      burst = errorDeduplicator.onErrorResponse(endpoint, response, nanos);
+      if (burst == null) {
+        return;
+      }
+    }
+    if (rateLimiter != null && !rateLimiter.tryAcquireResponse(endpoint, response.code(), nanos)) {
+      return;
+    }
+    if (asyncDispatcher != null && !asyncDispatcher.dispatchResponse(call, response)) {
+      return;
+    }
+    if (burst != null) {
+      // Only the errors that are logged are exemplars.
+      errorDeduplicator.start(burst);
+    }
+    if (alwaysLogged && adaptiveSampler != null) {
+      adaptiveSampler.onAlwaysLogged();
+    }
+    if (asyncDispatcher == null) {
+      call.logResponse(response);
+    }
+  }
+
+  void onFailure(LoggingCall<?> call, Throwable t) {
+    call.sampleRate = 1;
+    long nanos = System.nanoTime();
+    if (asyncDispatcher == null) {
+      reportIfDue(nanos);
+    }
+    long durationNanos = nanos - call.startNanos;
+    if (metrics != null) {
+      metrics.recordFailure(call.endpoint, durationNanos, t);
+    }
+    if (flightRecorderEvents) {
+      FlightRecorderEvents.failure(call.endpoint, durationNanos, t);
+    }
+    ErrorDeduplicator.Burst burst = null;
+    if (errorDeduplicator != null) {
+      burst = errorDeduplicator.onFailure(call.endpoint, t, nanos);
+      if (burst == null) {
+        return;
+      }
+    }
+    if (rateLimiter != null && !rateLimiter.tryAcquireFailure(call.endpoint, t, nanos)) {
+      return;
+    }
+    if (asyncDispatcher != null && !asyncDispatcher.dispatchFailure(call, t)) {
+      return;
+    }
+    if (burst != null) {
+      // Only the errors that are logged are exemplars.
+      errorDeduplicator.start(burst);
+    }
+    if (adaptiveSampler != null) {
+      adaptiveSampler.onAlwaysLogged();
+    }
+    if (asyncDispatcher == null) {
+      logger.onFailure(call, t);
+    }
   }
 
   static final class LoggingCallAdapter<R, T> implements CallAdapter<R, T> {
     final CallAdapter<R, T> delegate;
-    final Logger logger;
+    final LoggingCallAdapterFactory factory;
+    final Endpoint endpoint;
 
-    LoggingCallAdapter(CallAdapter<R, T> delegate, Logger logger) {
+    LoggingCallAdapter(CallAdapter<R, T> delegate, LoggingCallAdapterFactory factory,
+        Endpoint endpoint) {
       this.delegate = delegate;
-      this.logger = logger;
+      this.factory = factory;
+      this.endpoint = endpoint;
     }
 
     @Override public Type responseType() {
@@ -135,44 +907,84 @@ public final class LoggingCallAdapterFactory extends CallAdapter.Factory {
     }
 
     @Override public T adapt(Call<R> call) {
-      return delegate.adapt(new LoggingCall<>(logger, call));
+      return delegate.adapt(new LoggingCall<>(factory, endpoint, call));
     }
   }
 
-  static final class LoggingCall<R> implements Call<R> {
-    final Logger logger;
+  static final class LoggingCall<R> implements Call<R>, Callback<R> {
+    final LoggingCallAdapterFactory factory;
+    final Endpoint endpoint;
     final Call<R> delegate;
+    // This call is the delegate's callback, so enqueuing does not allocate another object.
+    Callback<R> callback;
+    long startNanos;
+    /** Whether a successful response is logged. Decided when the call starts. */
+    boolean sampled;
+    /** The probability that the call is logged. */
+    double sampleRate = 1;
 
-    LoggingCall(Logger logger, Call<R> delegate) {
-      this.logger = logger;
+    LoggingCall(LoggingCallAdapterFactory factory, Endpoint endpoint, Call<R> delegate) {
+      this.factory = factory;
+      this.endpoint = endpoint;
       this.delegate = delegate;
     }
 
     void logResponse(Response<R> response) {
+      Logger logger = factory.logger;
       if (response.isSuccessful()) {
         logger.onResponse(this, response);
-      } else {
+      } else if (factory.errorBodyCaptureLimit == Long.MAX_VALUE
+          && factory.captureBudget == null) {
         ResponseBody errorBody = response.errorBody();
         BufferedSource peekedErrorBodySource = errorBody.source().peek();
         ResponseBody peekedResponseBody = ResponseBody.create(peekedErrorBodySource,
             errorBody.contentType(), errorBody.contentLength());
         Response<R> peekedResponse = Response.error(peekedResponseBody, response.raw());
         logger.onResponse(this, peekedResponse);
+      } else {
+        // A peeked source would buffer as much of the error body as the logger reads.
+        ResponseBody errorBody = response.errorBody();
+        BufferedSource source = errorBody.source();
+        Buffer captured = new Buffer();
+        long reservedBytes = factory.captureErrorBody(source, captured);
+        boolean skipped = reservedBytes == -1;
+        boolean truncated = skipped || source.getBuffer().size() > reservedBytes;
+        ResponseBody capturedErrorBody =
+            new CapturedErrorBody(errorBody.contentType(), captured, truncated, skipped);
+        try {
+          logger.onResponse(this, Response.error(capturedErrorBody, response.raw()));
+        } finally {
+          if (!skipped) {
+            factory.releaseCapture(reservedBytes);
+          }
+        }
       }
     }
 
-    @Override public void enqueue(final Callback<R> callback) {
-      delegate.enqueue(new Callback<R>() {
-        @Override public void onResponse(Call<R> call, Response<R> response) {
-          logResponse(response);
-          callback.onResponse(call, response);
-        }
+    @Override public void enqueue(Callback<R> callback) {
+      if (callback == null) throw new NullPointerException("callback == null");
+      synchronized (this) {
+        if (this.callback != null) throw new IllegalStateException("Already executed.");
+        this.callback = callback;
+      }
+      startNanos = System.nanoTime();
+      factory.onStart(this);
+      try {
+        delegate.enqueue(this);
+      } catch (Throwable t) {
+        factory.onAbort(this);
+        throw t;
+      }
+    }
 
-        @Override public void onFailure(Call<R> call, Throwable t) {
-          logger.onFailure(call, t);
-          callback.onFailure(call, t);
-        }
-      });
+    @Override public void onResponse(Call<R> call, Response<R> response) {
+      factory.onResponse(this, response);
+      callback.onResponse(call, response);
+    }
+
+    @Override public void onFailure(Call<R> call, Throwable t) {
+      factory.onFailure(this, t);
+      callback.onFailure(call, t);
     }
 
     @Override public boolean isExecuted() {
@@ -180,16 +992,20 @@ public final class LoggingCallAdapterFactory extends CallAdapter.Factory {
     }
 
     @Override public Response<R> execute() throws IOException {
+      startNanos = System.nanoTime();
+      factory.onStart(this);
       Response<R> response;
       try {
         response = delegate.execute();
       } catch (Throwable t) {
-        if (!isFatal(t)) {
-          logger.onFailure(this, t);
+        if (isFatal(t)) {
+          factory.onAbort(this);
+        } else {
+          factory.onFailure(this, t);
         }
         throw t;
       }
-      logResponse(response);
+      factory.onResponse(this, response);
       return response;
     }
 
@@ -203,7 +1019,7 @@ public final class LoggingCallAdapterFactory extends CallAdapter.Factory {
 
     @SuppressWarnings("CloneDoesntCallSuperClone") // Performing deep clone.
     @Override public Call<R> clone() {
-      return new LoggingCall<>(logger, delegate.clone());
+      return new LoggingCall<>(factory, endpoint, delegate.clone());
     }
 
     @Override public Request request() {
@@ -0,0 +1,43 @@
+package com.nightlynexus.retrofit.logging;
+
+/**
+ * The management interface of a factory, for JConsole and other JMX clients.
+ * Call statistics are zero unless the factory {@linkplain LoggingCallAdapterFactory.Builder#metrics
+ * records metrics}. Queue statistics are zero unless the factory logs
+ * {@linkplain LoggingCallAdapterFactory.Builder#async asynchronously}.
+ * @see LoggingCallAdapterFactory.Builder#mbean
+ */
+public interface LoggingCallAdapterFactoryMXBean {
+  /** The number of calls executed or enqueued that have not completed yet. */
+  long getInFlightCallCount();
+
+  /** The number of calls that completed with a response or a failure. */
+  long getCallCount();
+
+  /**
+   * The number of completed calls per second over about the last minute. Reading it does not
+   * reset it. Clients that want their own interval can compute it from {@link #getCallCount}.
+   */
+  double getCallsPerSecond();
+
+  /** The fraction of completed calls that failed or had 4xx or 5xx responses, from 0 to 1. */
+  double getErrorRate();
+
+  /** Each endpoint's HTTP method, relative URL template and latency percentiles. */
+  String[] getEndpointLatencies();
+
+  /** The number of call events waiting for the asynchronous logging threads. */
+  int getQueueDepth();
+
+  /** The number of call events the overflow policy kept from the logger. */
+  long getDroppedCount();
+
+  /** The most bytes of each error body given to the logger. {@link Long#MAX_VALUE} if unlimited. */
+  long getErrorBodyCaptureLimit();
+
+  /** Changes the capture limit for calls completing from now on. */
+  void setErrorBodyCaptureLimit(long byteCount);
+
+  /** Zeroes the call and queue statistics. */
+  void resetStatistics();
+}
@@ -0,0 +1,182 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+
+/**
+ * The metrics of a factory that {@linkplain LoggingCallAdapterFactory.Builder#metrics records
+ * metrics}.
+ * <p>Each endpoint gets a dense ID when Retrofit first asks the factory for its call adapter. The
+ * endpoints' counters live in chunks of {@link #CHUNK_SIZE} endpoints, with the counters of an
+ * endpoint next to each other, so recording a call indexes an array instead of hashing a key, and
+ * does not allocate.
+ */
+final class Metrics {
+  static final int CALLS = 0;
+  /** The first of the five counters of status classes, from 1xx to 5xx. */
+  static final int STATUS_1XX = 1;
+  static final int STATUS_OTHER = 6;
+  static final int FAILURES_TIMEOUT = 7;
+  static final int FAILURES_IO = 8;
+  static final int FAILURES_OTHER = 9;
+  static final int REQUEST_BYTES = 10;
+  static final int RESPONSE_BYTES = 11;
+  static final int UNLOGGED = 12;
+  static final int COUNTER_COUNT = 13;
+
+  static final int RECENT_CALL_COUNT = 64;
+
+  static final int CHUNK_BITS = 6;
+  static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final Object lock = new Object();
+  /** Indexed by endpoint ID. Replaced under the lock when an endpoint is registered. */
+  private volatile Endpoint[] endpoints = new Endpoint[0];
+  /** Indexed by endpoint ID divided by the chunk size. */
+  private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+  final RecentCalls recentCalls = new RecentCalls(RECENT_CALL_COUNT);
+  final LongAdder inFlight = new LongAdder();
+
+  Endpoint register(Annotation[] annotations) {
+    synchronized (lock) {
+      int id = endpoints.length;
+      Endpoint endpoint = new Endpoint(annotations, id, new LatencyHistogram());
+      if ((id >>> CHUNK_BITS) == chunks.length) {
+        AtomicLongArray[] chunks = Arrays.copyOf(this.chunks, this.chunks.length + 1);
+        chunks[chunks.length - 1] = new AtomicLongArray(CHUNK_SIZE * COUNTER_COUNT);
+        this.chunks = chunks;
+      }
+      Endpoint[] endpoints = Arrays.copyOf(this.endpoints, id + 1);
+      endpoints[id] = endpoint;
+      this.endpoints = endpoints;
+      return endpoint;
+    }
+  }
+
+  void recordResponse(Endpoint endpoint, long latencyNanos, Response<?> response) {
+    inFlight.decrement();
+    endpoint.latencies.record(latencyNanos);
+    AtomicLongArray chunk = chunks[endpoint.id >>> CHUNK_BITS];
+    int offset = (endpoint.id & CHUNK_MASK) * COUNTER_COUNT;
+    chunk.incrementAndGet(offset + CALLS);
+    recentCalls.record(endpoint.id, response.code(), null, latencyNanos);
+    int statusClass = response.code() / 100;
+    chunk.incrementAndGet(offset
+        + (statusClass >= 1 && statusClass <= 5 ? STATUS_1XX + statusClass - 1 : STATUS_OTHER));
+    long requestBytes = requestBytes(response.raw());
+    if (requestBytes > 0) {
+      chunk.addAndGet(offset + REQUEST_BYTES, requestBytes);
+    }
+    long responseBytes = responseBytes(response.raw());
+    if (responseBytes > 0) {
+      chunk.addAndGet(offset + RESPONSE_BYTES, responseBytes);
+    }
+  }
+
+  /** Counts a call that the {@linkplain LoggingCallAdapterFactory.Sampler sampler} did not log. */
+  void recordUnlogged(Endpoint endpoint) {
+    chunks[endpoint.id >>> CHUNK_BITS]
+        .incrementAndGet((endpoint.id & CHUNK_MASK) * COUNTER_COUNT + UNLOGGED);
+  }
+
+  /** Returns the length of the request body, or -1 if it is unknown. */
+  static long requestBytes(okhttp3.Response rawResponse) {
+    RequestBody requestBody = rawResponse.request().body();
+    if (requestBody == null) {
+      return -1;
+    }
+    try {
+      return requestBody.contentLength();
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  /** Returns the length of the response body, or -1 if it is unknown. */
+  static long responseBytes(okhttp3.Response rawResponse) {
+    // Retrofit keeps the length of the body it consumed.
+    ResponseBody responseBody = rawResponse.body();
+    return responseBody == null ? -1 : responseBody.contentLength();
+  }
+
+  void recordFailure(Endpoint endpoint, long latencyNanos, Throwable t) {
+    inFlight.decrement();
+    endpoint.latencies.record(latencyNanos);
+    AtomicLongArray chunk = chunks[endpoint.id >>> CHUNK_BITS];
+    int offset = (endpoint.id & CHUNK_MASK) * COUNTER_COUNT;
+    chunk.incrementAndGet(offset + CALLS);
+    recentCalls.record(endpoint.id, 0, t.getClass(), latencyNanos);
+    int counter = t instanceof InterruptedIOException ? FAILURES_TIMEOUT
+        : t instanceof IOException ? FAILURES_IO
+        : FAILURES_OTHER;
+    chunk.incrementAndGet(offset + counter);
+  }
+
+  /** Returns the endpoints in the order of their IDs. */
+  Endpoint[] endpoints() {
+    return endpoints;
+  }
+
+  long counter(Endpoint endpoint, int counter) {
+    return chunks[endpoint.id >>> CHUNK_BITS]
+        .get((endpoint.id & CHUNK_MASK) * COUNTER_COUNT + counter);
+  }
+
+  /** Returns the sum of the counter over all endpoints. */
+  long total(int counter) {
+    long total = 0;
+    for (Endpoint endpoint : endpoints) {
+      total += counter(endpoint, counter);
+    }
+    return total;
+  }
+
+  /**
+   * Zeroes the counters and histograms. Calls completing concurrently may or may not be counted
+   * afterward.
+   */
+  void reset() {
+    for (AtomicLongArray chunk : chunks) {
+      for (int i = 0; i < chunk.length(); i++) {
+        chunk.set(i, 0);
+      }
+    }
+    for (Endpoint endpoint : endpoints) {
+      endpoint.latencies.reset();
+    }
+  }
+
+  Map<Endpoint, LatencySnapshot> latencySnapshots() {
+    Map<Endpoint, LatencySnapshot> snapshots = new LinkedHashMap<>();
+    for (Endpoint endpoint : endpoints) {
+      snapshots.put(endpoint, endpoint.latencies.snapshot());
+    }
+    return snapshots;
+  }
+
+  Map<Endpoint, EndpointStats> endpointStats() {
+    Endpoint[] endpoints = this.endpoints;
+    AtomicLongArray[] chunks = this.chunks;
+    Map<Endpoint, EndpointStats> stats = new LinkedHashMap<>();
+    for (Endpoint endpoint : endpoints) {
+      AtomicLongArray chunk = chunks[endpoint.id >>> CHUNK_BITS];
+      int offset = (endpoint.id & CHUNK_MASK) * COUNTER_COUNT;
+      long[] counters = new long[COUNTER_COUNT];
+      for (int i = 0; i < COUNTER_COUNT; i++) {
+        counters[i] = chunk.get(offset + i);
+      }
+      stats.put(endpoint, new EndpointStats(counters));
+    }
+    return stats;
+  }
+}
@@ -0,0 +1,130 @@
+package com.nightlynexus.retrofit.logging;
+
+import com.nightlynexus.retrofit.logging.RecentCalls.RecentCall;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import okio.Buffer;
+
+/**
+ * Serves the metrics of a factory that {@linkplain LoggingCallAdapterFactory.Builder#metrics
+ * records metrics} over HTTP, using the JDK's built-in server, so no metrics library is needed.
+ * <ul>
+ *   <li>{@code /metrics} serves the metrics in the OpenMetrics text format.
+ *   <li>{@code /calls} serves the most recent calls, oldest first, one per line: the completion
+ *   time in milliseconds since the epoch, the HTTP method, the relative URL template, the status
+ *   code or the failure's class, and the duration in microseconds.
+ * </ul>
+ * <p>Requests are handled one at a time on the server's thread. Responses are rendered into a
+ * reused buffer whose segments return to Okio's pool, so scraping does not produce garbage in
+ * proportion to the response size.
+ */
+public final class MetricsServer implements Closeable {
+  static final String PLAIN_TEXT = "text/plain; charset=utf-8";
+
+  final Metrics metrics;
+  final OpenMetricsExporter exporter;
+  final HttpServer server;
+  private final Buffer buffer = new Buffer();
+  private final RecentCall recentCall = new RecentCall();
+
+  /** Starts a server on {@code port} of the loopback address. Use port 0 for any free port. */
+  public static MetricsServer start(LoggingCallAdapterFactory factory, int port)
+      throws IOException {
+    return start(factory, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+  }
+
+  public static MetricsServer start(LoggingCallAdapterFactory factory, InetSocketAddress address)
+      throws IOException {
+    if (address == null) throw new NullPointerException("address == null");
+    // Checks that the factory records metrics.
+    OpenMetricsExporter exporter = new OpenMetricsExporter(factory);
+    MetricsServer metricsServer =
+        new MetricsServer(factory.metrics, exporter, HttpServer.create(address, 0));
+    metricsServer.server.start();
+    return metricsServer;
+  }
+
+  private MetricsServer(Metrics metrics, OpenMetricsExporter exporter, HttpServer server) {
+    this.metrics = metrics;
+    this.exporter = exporter;
+    this.server = server;
+    server.createContext("/", this::handle);
+  }
+
+  /** The address the server is bound to, with the actual port if port 0 was requested. */
+  public InetSocketAddress address() {
+    return server.getAddress();
+  }
+
+  /** Stops the server without waiting for in-progress requests. */
+  @Override public void close() {
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String method = exchange.getRequestMethod();
+      if (!method.equals("GET") && !method.equals("HEAD")) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      String path = exchange.getRequestURI().getPath();
+      String contentType;
+      if (path.equals("/metrics")) {
+        exporter.write(buffer);
+        contentType = OpenMetricsExporter.CONTENT_TYPE;
+      } else if (path.equals("/calls")) {
+        writeRecentCalls(buffer);
+        contentType = PLAIN_TEXT;
+      } else {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      exchange.getResponseHeaders().set("Content-Type", contentType);
+      if (method.equals("HEAD")) {
+        exchange.sendResponseHeaders(200, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(200, buffer.size());
+      try (OutputStream body = exchange.getResponseBody()) {
+        buffer.writeTo(body);
+      }
+    } finally {
+      buffer.clear();
+      exchange.close();
+    }
+  }
+
+  private void writeRecentCalls(Buffer out) {
+    RecentCalls recentCalls = metrics.recentCalls;
+    long end = recentCalls.end();
+    // Read after the end, so the endpoints of the calls before the end are all registered.
+    Endpoint[] endpoints = metrics.endpoints();
+    for (long position = Math.max(0, end - recentCalls.capacity()); position < end; position++) {
+      RecentCall call = recentCall;
+      if (!recentCalls.read(position, call)) {
+        continue;
+      }
+      Endpoint endpoint = endpoints[call.endpointId];
+      out.writeDecimalLong(call.timeMillis)
+          .writeByte(' ')
+          .writeUtf8(String.valueOf(endpoint.httpMethod))
+          .writeByte(' ')
+          .writeUtf8(String.valueOf(endpoint.relativeUrl))
+          .writeByte(' ');
+      if (call.failure != null) {
+        out.writeUtf8(call.failure.getName());
+      } else {
+        out.writeDecimalLong(call.code);
+      }
+      out.writeByte(' ')
+          .writeDecimalLong(call.durationNanos / 1_000)
+          .writeUtf8("us\n");
+    }
+  }
+}
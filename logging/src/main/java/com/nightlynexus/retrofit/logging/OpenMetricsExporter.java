@@ -0,0 +1,292 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * Writes the metrics of a factory that {@linkplain LoggingCallAdapterFactory.Builder#metrics
+ * records metrics} in the OpenMetrics text format, for Prometheus and compatible scrapers.
+ * <p>Samples are labelled by the HTTP method and the relative URL template, like
+ * {@code users/{id}}, rather than by the concrete URL, so the number of series is bounded by the
+ * number of service methods. Service methods with the same labels share a series. Latencies are
+ * written as summaries with the 0.5, 0.9, 0.99 and 0.999 quantiles.
+ * <p>Writing appends the labels and numbers directly to the output, without building a string for
+ * each sample. An exporter reuses its scratch space, so writes are serialized.
+ */
+public final class OpenMetricsExporter {
+  public static final String CONTENT_TYPE =
+      "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+  static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx", "other"};
+  static final String[] FAILURE_TYPES = {"timeout", "io", "other"};
+  static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+  static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+  static final Comparator<Endpoint> LABEL_ORDER =
+      Comparator.comparing((Endpoint endpoint) -> endpoint.httpMethod,
+          Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+          .thenComparing(endpoint -> endpoint.relativeUrl,
+              Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+
+  final Metrics metrics;
+  private final char[] digits = new char[20];
+  private final long[] buckets = new long[LatencyHistogram.BUCKET_COUNT];
+  private final long[] endpointBuckets = new long[LatencyHistogram.BUCKET_COUNT];
+  private int[] groupStarts = new int[1];
+
+  public OpenMetricsExporter(LoggingCallAdapterFactory factory) {
+    if (factory == null) throw new NullPointerException("factory == null");
+    if (factory.metrics == null) {
+      throw new IllegalArgumentException("factory does not record metrics.");
+    }
+    this.metrics = factory.metrics;
+  }
+
+  /** Writes the metrics as UTF-8 and flushes the stream. Does not close the stream. */
+  public void write(OutputStream out) throws IOException {
+    BufferedSink sink = Okio.buffer(Okio.sink(out));
+    write(sink);
+    sink.flush();
+  }
+
+  /** Writes the metrics as UTF-8. Does not flush the sink. */
+  public void write(BufferedSink sink) throws IOException {
+    write(new SinkAppendable(sink));
+  }
+
+  public synchronized void write(Appendable out) throws IOException {
+    // Service methods with the same labels, like every @Url method, or one interface created by two
+    // Retrofit instances, are written as one series, because duplicate label sets are invalid.
+    Endpoint[] endpoints = metrics.endpoints().clone();
+    Arrays.sort(endpoints, LABEL_ORDER);
+    int groupCount = group(endpoints);
+
+    family(out, "retrofit_calls", "counter", null,
+        "Calls completed with a response or a failure.");
+    for (int group = 0; group < groupCount; group++) {
+      sample(out, "retrofit_calls_total", endpoints, group, null, null, Metrics.CALLS);
+    }
+
+    family(out, "retrofit_responses", "counter", null, "Responses by status class.");
+    for (int group = 0; group < groupCount; group++) {
+      for (int i = 0; i < STATUS_CLASSES.length; i++) {
+        sample(out, "retrofit_responses_total", endpoints, group, "status_class",
+            STATUS_CLASSES[i], Metrics.STATUS_1XX + i);
+      }
+    }
+
+    family(out, "retrofit_failures", "counter", null, "Failures by type.");
+    for (int group = 0; group < groupCount; group++) {
+      for (int i = 0; i < FAILURE_TYPES.length; i++) {
+        sample(out, "retrofit_failures_total", endpoints, group, "type", FAILURE_TYPES[i],
+            Metrics.FAILURES_TIMEOUT + i);
+      }
+    }
+
+    family(out, "retrofit_request_bytes", "counter", "bytes",
+        "Request body bytes, where the lengths were known.");
+    for (int group = 0; group < groupCount; group++) {
+      sample(out, "retrofit_request_bytes_total", endpoints, group, null, null,
+          Metrics.REQUEST_BYTES);
+    }
+
+    family(out, "retrofit_response_bytes", "counter", "bytes",
+        "Response body bytes, where the lengths were known.");
+    for (int group = 0; group < groupCount; group++) {
+      sample(out, "retrofit_response_bytes_total", endpoints, group, null, null,
+          Metrics.RESPONSE_BYTES);
+    }
+
+    family(out, "retrofit_unlogged_calls", "counter", null,
+        "Successful calls that the sampler did not log.");
+    for (int group = 0; group < groupCount; group++) {
+      sample(out, "retrofit_unlogged_calls_total", endpoints, group, null, null,
+          Metrics.UNLOGGED);
+    }
+
+    family(out, "retrofit_call_duration_seconds", "summary", "seconds",
+        "Time from executing or enqueuing a call to its response or failure.");
+    for (int group = 0; group < groupCount; group++) {
+      Endpoint endpoint = endpoints[groupStarts[group]];
+      long count = sumLatencies(endpoints, group);
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        long nanos = LatencyHistogram.valueAtPercentile(buckets, count, PERCENTILES[i]);
+        labels(out.append("retrofit_call_duration_seconds"), endpoint, "quantile",
+            QUANTILE_LABELS[i]);
+        appendSeconds(out.append(' '), nanos);
+        out.append('\n');
+      }
+      labels(out.append("retrofit_call_duration_seconds_count"), endpoint, null, null);
+      appendLong(out.append(' '), count);
+      out.append('\n');
+    }
+
+    out.append("# EOF\n");
+  }
+
+  /**
+   * Records where each run of endpoints with the same labels starts in {@link #groupStarts}, and
+   * returns the number of runs. The endpoints must be sorted by their labels.
+   */
+  private int group(Endpoint[] endpoints) {
+    if (groupStarts.length < endpoints.length + 1) {
+      groupStarts = new int[endpoints.length + 1];
+    }
+    int groupCount = 0;
+    for (int i = 0; i < endpoints.length; i++) {
+      if (i == 0 || LABEL_ORDER.compare(endpoints[i - 1], endpoints[i]) != 0) {
+        groupStarts[groupCount++] = i;
+      }
+    }
+    groupStarts[groupCount] = endpoints.length;
+    return groupCount;
+  }
+
+  /** Sums the latencies of the group's endpoints into {@link #buckets}, and returns the total. */
+  private long sumLatencies(Endpoint[] endpoints, int group) {
+    long total = endpoints[groupStarts[group]].latencies.sumInto(buckets);
+    for (int i = groupStarts[group] + 1; i < groupStarts[group + 1]; i++) {
+      total += endpoints[i].latencies.sumInto(endpointBuckets);
+      for (int bucket = 0; bucket < buckets.length; bucket++) {
+        buckets[bucket] += endpointBuckets[bucket];
+      }
+    }
+    return total;
+  }
+
+  private static void family(Appendable out, String name, String type, String unit,
+      String help) throws IOException {
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    if (unit != null) {
+      out.append("# UNIT ").append(name).append(' ').append(unit).append('\n');
+    }
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+  }
+
+  /** Writes the sum of the counter over the group's endpoints. */
+  private void sample(Appendable out, String name, Endpoint[] endpoints, int group,
+      String labelName, String labelValue, int counter) throws IOException {
+    long value = 0;
+    for (int i = groupStarts[group]; i < groupStarts[group + 1]; i++) {
+      value += metrics.counter(endpoints[i], counter);
+    }
+    labels(out.append(name), endpoints[groupStarts[group]], labelName, labelValue);
+    appendLong(out.append(' '), value);
+    out.append('\n');
+  }
+
+  private static void labels(Appendable out, Endpoint endpoint, String labelName,
+      String labelValue) throws IOException {
+    out.append("{method=\"");
+    appendEscaped(out, endpoint.httpMethod);
+    out.append("\",url=\"");
+    appendEscaped(out, endpoint.relativeUrl);
+    out.append('"');
+    if (labelName != null) {
+      out.append(',').append(labelName).append("=\"").append(labelValue).append('"');
+    }
+    out.append('}');
+  }
+
+  /** Escapes the backslashes, double quotes and line feeds of the label value. */
+  static void appendEscaped(Appendable out, String value) throws IOException {
+    if (value == null) {
+      return;
+    }
+    int start = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      String escaped;
+      if (c == '\\') {
+        escaped = "\\\\";
+      } else if (c == '"') {
+        escaped = "\\\"";
+      } else if (c == '\n') {
+        escaped = "\\n";
+      } else {
+        continue;
+      }
+      out.append(value, start, i).append(escaped);
+      start = i + 1;
+    }
+    out.append(value, start, value.length());
+  }
+
+  private void appendLong(Appendable out, long value) throws IOException {
+    if (value < 0) {
+      out.append('-');
+      if (value == Long.MIN_VALUE) {
+        // The negation overflows.
+        out.append("9223372036854775808");
+        return;
+      }
+      value = -value;
+    }
+    int start = digits.length;
+    do {
+      digits[--start] = (char) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    for (int i = start; i < digits.length; i++) {
+      out.append(digits[i]);
+    }
+  }
+
+  /** Appends the nanoseconds as decimal seconds, without trailing zeros. */
+  private void appendSeconds(Appendable out, long nanos) throws IOException {
+    appendLong(out, nanos / NANOS_PER_SECOND);
+    long fraction = nanos % NANOS_PER_SECOND;
+    if (fraction == 0) {
+      return;
+    }
+    out.append('.');
+    int length = 9;
+    while (fraction % 10 == 0) {
+      fraction /= 10;
+      length--;
+    }
+    for (long divisor = pow10(length - 1); divisor != 0; divisor /= 10) {
+      out.append((char) ('0' + fraction / divisor % 10));
+    }
+  }
+
+  private static long pow10(int exponent) {
+    long value = 1;
+    for (int i = 0; i < exponent; i++) {
+      value *= 10;
+    }
+    return value;
+  }
+
+  /** Encodes appended characters as UTF-8. */
+  static final class SinkAppendable implements Appendable {
+    final BufferedSink sink;
+
+    SinkAppendable(BufferedSink sink) {
+      this.sink = sink;
+    }
+
+    @Override public Appendable append(CharSequence csq) throws IOException {
+      return append(csq, 0, csq.length());
+    }
+
+    @Override public Appendable append(CharSequence csq, int start, int end) throws IOException {
+      sink.writeUtf8(csq.toString(), start, end);
+      return this;
+    }
+
+    @Override public Appendable append(char c) throws IOException {
+      if (c < 0x80) {
+        sink.writeByte(c);
+      } else {
+        sink.writeUtf8CodePoint(c);
+      }
+      return this;
+    }
+  }
+}
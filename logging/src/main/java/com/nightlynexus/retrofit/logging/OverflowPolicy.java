@@ -0,0 +1,29 @@
+package com.nightlynexus.retrofit.logging;
+
+/**
+ * What the {@linkplain LoggingCallAdapterFactory.Builder#async asynchronous logging} does with a
+ * call event when its ring is full because the {@link LoggingCallAdapterFactory.Logger} cannot keep
+ * up.
+ */
+public enum OverflowPolicy {
+  /** Drops the new call event. Never blocks the thread completing the call. */
+  DROP_NEWEST,
+  /**
+   * Drops the oldest call event waiting in the ring to make room for the new one. Call events
+   * leave the ring before they are logged, so a slow logger does not keep them from being
+   * dropped. Drops the new call event instead in the rare case that the room it needs is still
+   * being filled by another thread. Never blocks the thread completing the call.
+   */
+  DROP_OLDEST,
+  /**
+   * Blocks the thread completing the call until the ring has room, up to the
+   * {@linkplain LoggingCallAdapterFactory.Builder#overflowBlockTimeout timeout}, then drops the
+   * new call event. Note that this can block callers of {@link retrofit2.Call#execute()}.
+   */
+  BLOCK,
+  /**
+   * Drops the new call event but counts it as a response or failure in the
+   * {@linkplain AsyncStats statistics}, so the totals stay complete.
+   */
+  SUMMARIZE
+}
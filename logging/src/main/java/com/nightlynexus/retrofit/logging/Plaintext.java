@@ -0,0 +1,82 @@
+package com.nightlynexus.retrofit.logging;
+
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Decides whether bytes are probably human readable text by decoding a small sample of UTF-8 code
+ * points in place. Matches decoding the sample with {@link Buffer#readUtf8CodePoint()} without
+ * copying it or allocating.
+ */
+final class Plaintext {
+  static final int SAMPLE_BYTE_COUNT = 64;
+  static final int SAMPLE_CODE_POINT_COUNT = 16;
+  /** The C0 control characters that {@link Character#isWhitespace} accepts. */
+  private static final long C0_WHITESPACE = 0xf0003e00L;
+
+  private Plaintext() {
+  }
+
+  static boolean isPlaintext(Buffer buffer) {
+    return isPlaintext(buffer, null, buffer.size());
+  }
+
+  static boolean isPlaintext(ByteString byteString) {
+    return isPlaintext(null, byteString, byteString.size());
+  }
+
+  /** Reads from exactly one of {@code buffer} and {@code byteString}. */
+  private static boolean isPlaintext(Buffer buffer, ByteString byteString, long size) {
+    long limit = Math.min(size, SAMPLE_BYTE_COUNT);
+    long i = 0;
+    codePoints:
+    for (int codePointCount = 0; codePointCount < SAMPLE_CODE_POINT_COUNT && i < limit;
+        codePointCount++) {
+      int b = byteAt(buffer, byteString, i);
+      if (b < 0x80) {
+        // ASCII fast path: no decoding, one table check.
+        if (b < 0x20 ? (C0_WHITESPACE >>> b & 1) == 0 : b == 0x7f) {
+          return false;
+        }
+        i++;
+        continue;
+      }
+      int byteCount;
+      int codePoint;
+      if ((b & 0xe0) == 0xc0) {
+        byteCount = 2;
+        codePoint = b & 0x1f;
+      } else if ((b & 0xf0) == 0xe0) {
+        byteCount = 3;
+        codePoint = b & 0x0f;
+      } else if ((b & 0xf8) == 0xf0) {
+        byteCount = 4;
+        codePoint = b & 0x07;
+      } else {
+        i++; // An invalid lead byte decodes as U+FFFD.
+        continue;
+      }
+      if (limit - i < byteCount) {
+        return false; // Truncated UTF-8 sequence.
+      }
+      for (int j = 1; j < byteCount; j++) {
+        int continuation = byteAt(buffer, byteString, i + j);
+        if ((continuation & 0xc0) != 0x80) {
+          i += j; // An invalid sequence decodes as U+FFFD.
+          continue codePoints;
+        }
+        codePoint = codePoint << 6 | (continuation & 0x3f);
+      }
+      i += byteCount;
+      // Only 2-byte sequences encode C1 control characters. None of them are whitespace.
+      if (byteCount == 2 && codePoint >= 0x80 && codePoint <= 0x9f) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int byteAt(Buffer buffer, ByteString byteString, long index) {
+    return (buffer != null ? buffer.getByte(index) : byteString.getByte((int) index)) & 0xff;
+  }
+}
@@ -0,0 +1,85 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A ring of the most recently completed calls. Recording overwrites the oldest entry in place
+ * without locking or allocating. Each entry has a version that is odd while it is written, so
+ * readers can skip entries that change while they read them.
+ */
+final class RecentCalls {
+  static final int VERSION = 0;
+  static final int ENDPOINT = 1;
+  static final int CODE = 2;
+  static final int TIME_MILLIS = 3;
+  static final int DURATION_NANOS = 4;
+  static final int FIELD_COUNT = 5;
+
+  final AtomicLongArray fields;
+  final AtomicReferenceArray<Class<?>> failures;
+  final int mask;
+  final AtomicLong next = new AtomicLong();
+
+  RecentCalls(int capacity) {
+    // Capacity is a power of two.
+    fields = new AtomicLongArray(capacity * FIELD_COUNT);
+    failures = new AtomicReferenceArray<>(capacity);
+    mask = capacity - 1;
+  }
+
+  /** Records a response if {@code failure} is null, or a failure otherwise. */
+  void record(int endpointId, int code, Class<?> failure, long durationNanos) {
+    long position = next.getAndIncrement();
+    int index = (int) position & mask;
+    int offset = index * FIELD_COUNT;
+    // Ordered writes keep the fields between the odd and the even version.
+    fields.lazySet(offset + VERSION, position * 2 + 1);
+    fields.lazySet(offset + ENDPOINT, endpointId);
+    fields.lazySet(offset + CODE, code);
+    fields.lazySet(offset + TIME_MILLIS, System.currentTimeMillis());
+    fields.lazySet(offset + DURATION_NANOS, durationNanos);
+    failures.lazySet(index, failure);
+    fields.lazySet(offset + VERSION, position * 2 + 2);
+  }
+
+  /** The position after the most recent call. */
+  long end() {
+    return next.get();
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Reads the call at {@code position} into {@code call}. Returns false if the call was
+   * overwritten or is being written.
+   */
+  boolean read(long position, RecentCall call) {
+    int index = (int) position & mask;
+    int offset = index * FIELD_COUNT;
+    long version = position * 2 + 2;
+    if (fields.get(offset + VERSION) != version) {
+      return false;
+    }
+    call.endpointId = (int) fields.get(offset + ENDPOINT);
+    call.code = (int) fields.get(offset + CODE);
+    call.timeMillis = fields.get(offset + TIME_MILLIS);
+    call.durationNanos = fields.get(offset + DURATION_NANOS);
+    call.failure = failures.get(index);
+    return fields.get(offset + VERSION) == version;
+  }
+
+  /** A reusable copy of a recent call. */
+  static final class RecentCall {
+    int endpointId;
+    /** 0 for failures. */
+    int code;
+    /** Null for responses. */
+    Class<?> failure;
+    long timeMillis;
+    long durationNanos;
+  }
+}
@@ -0,0 +1,19 @@
+package com.nightlynexus.retrofit.logging;
+
+/**
+ * How the {@linkplain LoggingCallAdapterFactory.Builder#async asynchronous logging} threads wait
+ * for new call events. The strategies trade logging latency for CPU use.
+ */
+public enum WaitStrategy {
+  /** Spins without pausing. Lowest latency, but each logging thread occupies a core. */
+  BUSY_SPIN,
+  /** Yields the processor between checks. */
+  YIELD,
+  /** Parks for a short time between checks. */
+  PARK,
+  /**
+   * Blocks until a call event is published. Uses the least CPU, but publishing a call event signals
+   * the waiting logging threads.
+   */
+  BLOCKING
+}
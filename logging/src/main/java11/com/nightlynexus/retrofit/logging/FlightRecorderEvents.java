@@ -0,0 +1,87 @@
+package com.nightlynexus.retrofit.logging;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import retrofit2.Response;
+
+/**
+ * Emits a Java Flight Recorder event for each call. Events are only built when a recording has
+ * enabled them, so this costs little otherwise.
+ */
+final class FlightRecorderEvents {
+  static void response(Endpoint endpoint, long durationNanos, Response<?> response) {
+    CallEvent event = new CallEvent();
+    if (!event.shouldCommit()) {
+      return;
+    }
+    okhttp3.Response rawResponse = response.raw();
+    event.set(endpoint, durationNanos);
+    event.status = response.code();
+    event.requestBytes = Metrics.requestBytes(rawResponse);
+    event.responseBytes = Metrics.responseBytes(rawResponse);
+    event.commit();
+  }
+
+  static void failure(Endpoint endpoint, long durationNanos, Throwable t) {
+    CallEvent event = new CallEvent();
+    if (!event.shouldCommit()) {
+      return;
+    }
+    event.set(endpoint, durationNanos);
+    event.exceptionClass = t.getClass();
+    event.requestBytes = -1;
+    event.responseBytes = -1;
+    event.commit();
+  }
+
+  private FlightRecorderEvents() {
+  }
+
+  @Name("com.nightlynexus.retrofit.logging.Call")
+  @Label("Retrofit Call")
+  @Category("Retrofit")
+  @Description("A Retrofit call completed with a response or a failure.")
+  @StackTrace(false)
+  static final class CallEvent extends Event {
+    @Label("HTTP Method")
+    String httpMethod;
+
+    @Label("Relative URL")
+    @Description("The service method's relative URL template.")
+    String relativeUrl;
+
+    @Label("Status")
+    @Description("The response's status code, or 0 for failures.")
+    int status;
+
+    @Label("Call Duration")
+    @Description("The time from executing or enqueuing the call to its response or failure.")
+    @Timespan(Timespan.NANOSECONDS)
+    long callDuration;
+
+    @Label("Request Bytes")
+    @Description("The request body's length, or -1 if it is unknown.")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Response Bytes")
+    @Description("The response body's length, or -1 if it is unknown.")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Exception Class")
+    Class<?> exceptionClass;
+
+    void set(Endpoint endpoint, long durationNanos) {
+      httpMethod = endpoint.httpMethod;
+      relativeUrl = endpoint.relativeUrl;
+      callDuration = durationNanos;
+    }
+  }
+}
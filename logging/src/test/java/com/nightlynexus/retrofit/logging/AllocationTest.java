@@ -0,0 +1,122 @@
+package com.nightlynexus.retrofit.logging;
+
+import com.nightlynexus.retrofit.logging.FakeCallFactory.Outcome;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Fails when the logging wrapper allocates more per call than its budget. Each test measures the
+ * bytes allocated by a bare Retrofit instance and by one with the factory, and checks the
+ * difference, so Retrofit's own allocations do not count against the budget.
+ */
+@RunWith(JUnit4.class)
+public final class AllocationTest {
+  /** The LoggingCall. */
+  static final long SUCCESS_BUDGET = 128;
+  /** The LoggingCall and the peeked error body handed to the logger. */
+  static final long ERROR_BUDGET = 512;
+  static final int WARM_UP_CALLS = 20_000;
+  static final int MEASURED_CALLS = 20_000;
+  static final byte[] ERROR_BODY = "This request failed.".getBytes(StandardCharsets.UTF_8);
+
+  interface Service {
+    @GET("/") Call<Void> get();
+  }
+
+  static final LoggingCallAdapterFactory.Logger NO_OP_LOGGER =
+      new LoggingCallAdapterFactory.Logger() {
+        @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+        }
+
+        @Override public <T> void onFailure(Call<T> call, Throwable t) {
+        }
+      };
+
+  static final Callback<Void> NO_OP_CALLBACK = new Callback<Void>() {
+    @Override public void onResponse(Call<Void> call, Response<Void> response) {
+    }
+
+    @Override public void onFailure(Call<Void> call, Throwable t) {
+    }
+  };
+
+  com.sun.management.ThreadMXBean threadMXBean;
+
+  @Before public void setUp() {
+    java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+    this.threadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+    assumeTrue(this.threadMXBean.isThreadAllocatedMemorySupported());
+    this.threadMXBean.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  @Test public void executeSuccess() throws IOException {
+    assertThat(overheadPerCall(Outcome.SUCCESS, false)).isAtMost(SUCCESS_BUDGET);
+  }
+
+  @Test public void executeError() throws IOException {
+    assertThat(overheadPerCall(Outcome.ERROR, false)).isAtMost(ERROR_BUDGET);
+  }
+
+  @Test public void enqueueSuccess() throws IOException {
+    assertThat(overheadPerCall(Outcome.SUCCESS, true)).isAtMost(SUCCESS_BUDGET);
+  }
+
+  @Test public void enqueueError() throws IOException {
+    assertThat(overheadPerCall(Outcome.ERROR, true)).isAtMost(ERROR_BUDGET);
+  }
+
+  /** Returns the bytes the factory adds to each call. */
+  private long overheadPerCall(Outcome outcome, boolean enqueue) throws IOException {
+    Service bare = service(outcome, null);
+    Service logging = service(outcome, new LoggingCallAdapterFactory(NO_OP_LOGGER));
+    // Warm up both paths before measuring either, so the JIT compiles them the same way.
+    call(bare, WARM_UP_CALLS, enqueue);
+    call(logging, WARM_UP_CALLS, enqueue);
+    long bareBytes = allocatedBytes(bare, enqueue);
+    long loggingBytes = allocatedBytes(logging, enqueue);
+    return (loggingBytes - bareBytes) / MEASURED_CALLS;
+  }
+
+  private long allocatedBytes(Service service, boolean enqueue) throws IOException {
+    long threadId = Thread.currentThread().getId();
+    long before = threadMXBean.getThreadAllocatedBytes(threadId);
+    call(service, MEASURED_CALLS, enqueue);
+    return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+  }
+
+  private static void call(Service service, int count, boolean enqueue) throws IOException {
+    for (int i = 0; i < count; i++) {
+      Call<Void> call = service.get();
+      if (enqueue) {
+        call.enqueue(NO_OP_CALLBACK);
+      } else {
+        call.execute();
+      }
+    }
+  }
+
+  private static Service service(Outcome outcome, LoggingCallAdapterFactory factory) {
+    byte[] body = outcome == Outcome.ERROR ? ERROR_BODY : new byte[0];
+    Retrofit.Builder builder = new Retrofit.Builder()
+        .baseUrl("https://example.com/")
+        .callFactory(new FakeCallFactory(outcome, body));
+    if (factory != null) {
+      builder.addCallAdapterFactory(factory);
+    }
+    return builder.build().create(Service.class);
+  }
+}
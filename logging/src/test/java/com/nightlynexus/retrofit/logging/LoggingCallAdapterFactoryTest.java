@@ -2,10 +2,23 @@ package com.nightlynexus.retrofit.logging;
 
 import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -14,7 +27,11 @@ import okhttp3.ResponseBody;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
 import okio.BufferedSource;
+import okio.ByteString;
+import okio.ForwardingSource;
+import okio.Okio;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -29,9 +46,13 @@ import retrofit2.Retrofit;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
 import retrofit2.http.POST;
+import retrofit2.http.Header;
 import retrofit2.http.Path;
+import retrofit2.http.Query;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 @RunWith(JUnit4.class)
@@ -53,6 +74,51 @@ public final class LoggingCallAdapterFactoryTest {
     assertThat(LoggingCallAdapterFactory.errorMessage(errorBody)).isNull();
   }
 
+  @Test public void errorMessageHelperWithLimit() throws IOException {
+    ResponseBody errorBody = ResponseBody.create("This request failed.", null);
+    ErrorMessage errorMessage = LoggingCallAdapterFactory.errorMessage(errorBody, 12);
+    assertThat(errorMessage.text()).isEqualTo("This request");
+    assertThat(errorMessage.truncated()).isTrue();
+  }
+
+  @Test public void errorMessageHelperWithLimitLongerThanBody() throws IOException {
+    ResponseBody errorBody = ResponseBody.create("This request failed.", null);
+    ErrorMessage errorMessage = LoggingCallAdapterFactory.errorMessage(errorBody, 20);
+    assertThat(errorMessage.text()).isEqualTo("This request failed.");
+    assertThat(errorMessage.truncated()).isFalse();
+  }
+
+  @Test public void errorMessageHelperWithLimitDropsPartialCodePoint() throws IOException {
+    // The euro sign is 3 bytes.
+    ResponseBody errorBody = ResponseBody.create("Costs \u20ac5.", null);
+    ErrorMessage errorMessage = LoggingCallAdapterFactory.errorMessage(errorBody, 8);
+    assertThat(errorMessage.text()).isEqualTo("Costs ");
+    assertThat(errorMessage.truncated()).isTrue();
+  }
+
+  @Test public void isPlaintext() throws IOException {
+    assertThat(LoggingCallAdapterFactory.isPlaintext(new Buffer())).isTrue();
+    assertThat(LoggingCallAdapterFactory.isPlaintext(new Buffer().writeUtf8("{\"a\": 1}\r\n")))
+        .isTrue();
+    assertThat(LoggingCallAdapterFactory.isPlaintext(
+        new Buffer().writeUtf8("\u00e9t\u00e9 \u20ac"))).isTrue();
+    assertThat(LoggingCallAdapterFactory.isPlaintext(new Buffer().writeUtf8("a\u0000b")))
+        .isFalse();
+    assertThat(LoggingCallAdapterFactory.isPlaintext(new Buffer().writeUtf8("a\u0085b")))
+        .isFalse();
+    // Truncated UTF-8 sequence.
+    assertThat(LoggingCallAdapterFactory.isPlaintext(new Buffer().writeByte(0xe2).writeByte(0x82)))
+        .isFalse();
+    // Only the first 16 code points are sampled.
+    assertThat(LoggingCallAdapterFactory.isPlaintext(
+        new Buffer().writeUtf8("0123456789abcdef\u0000"))).isTrue();
+    assertThat(LoggingCallAdapterFactory.isPlaintext(ByteString.encodeUtf8("a\u0000b")))
+        .isFalse();
+    Buffer source = new Buffer().writeUtf8("text");
+    assertThat(LoggingCallAdapterFactory.isPlaintext((BufferedSource) source)).isTrue();
+    assertThat(source.size()).isEqualTo(4);
+  }
+
   interface Service {
     @GET("/") Call<String> getString();
 
@@ -61,6 +127,9 @@ public final class LoggingCallAdapterFactoryTest {
     @GET("/{a}") Call<Void> getWithPath(@Path("a") Object a);
 
     @POST("/") Call<Void> postBody(@Body String body);
+
+    @POST("/{a}") Call<Void> postArguments(@Path("a") String a, @Query("q") String q,
+        @Header("h") String h, @Body String body);
   }
 
   @Test public void cannotConsumeErrorBody() throws IOException {
@@ -89,6 +158,134 @@ public final class LoggingCallAdapterFactoryTest {
     assertThat(response.errorBody().source().readUtf8()).isEqualTo("This request failed.");
   }
 
+  @Test public void errorBodyCaptureLimit() throws IOException {
+    MockWebServer server = new MockWebServer();
+    AtomicReference<String> loggedErrorBody = new AtomicReference<>();
+    AtomicBoolean loggedTruncated = new AtomicBoolean();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(
+            new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+              @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+                ResponseBody errorBody = response.errorBody();
+                loggedTruncated.set(LoggingCallAdapterFactory.isErrorBodyTruncated(errorBody));
+                try {
+                  loggedErrorBody.set(errorBody.string());
+                } catch (IOException e) {
+                  throw new AssertionError(e);
+                }
+              }
+
+              @Override public <T> void onFailure(Call<T> call, Throwable t) {
+                throw new AssertionError(t);
+              }
+            })
+            .errorBodyCaptureLimit(4)
+            .build())
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse().setResponseCode(400).setBody("This request failed."));
+    Response<String> response = service.getString().execute();
+    assertThat(loggedErrorBody.get()).isEqualTo("This");
+    assertThat(loggedTruncated.get()).isTrue();
+    assertThat(response.errorBody().string()).isEqualTo("This request failed.");
+  }
+
+  @Test public void captureBudgetTruncatesAndSkipsErrorBodies() throws IOException {
+    MockWebServer server = new MockWebServer();
+    AtomicReference<String> loggedErrorBody = new AtomicReference<>();
+    AtomicBoolean loggedTruncated = new AtomicBoolean();
+    AtomicBoolean loggedSkipped = new AtomicBoolean();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+            ResponseBody errorBody = response.errorBody();
+            loggedTruncated.set(LoggingCallAdapterFactory.isErrorBodyTruncated(errorBody));
+            loggedSkipped.set(LoggingCallAdapterFactory.isErrorBodyCaptureSkipped(errorBody));
+            try {
+              loggedErrorBody.set(errorBody.string());
+            } catch (IOException e) {
+              throw new AssertionError(e);
+            }
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+        })
+            .captureBudget(8)
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+
+    server.enqueue(new MockResponse().setResponseCode(400).setBody("Failed."));
+    service.getString().execute();
+    assertThat(loggedErrorBody.get()).isEqualTo("Failed.");
+    assertThat(loggedTruncated.get()).isFalse();
+    assertThat(loggedSkipped.get()).isFalse();
+
+    server.enqueue(new MockResponse().setResponseCode(400).setBody("This request failed."));
+    Response<String> response = service.getString().execute();
+    assertThat(loggedErrorBody.get()).isEqualTo("This req");
+    assertThat(loggedTruncated.get()).isTrue();
+    assertThat(loggedSkipped.get()).isFalse();
+    assertThat(response.errorBody().string()).isEqualTo("This request failed.");
+
+    // Hold the whole budget, as the error bodies of other in-flight calls would.
+    assertThat(factory.captureBudget.reserve(8)).isEqualTo(8);
+    server.enqueue(new MockResponse().setResponseCode(400).setBody("Failed."));
+    response = service.getString().execute();
+    assertThat(loggedErrorBody.get()).isEmpty();
+    assertThat(loggedSkipped.get()).isTrue();
+    assertThat(response.errorBody().string()).isEqualTo("Failed.");
+    factory.captureBudget.release(8);
+
+    CaptureBudgetStats stats = factory.captureBudgetStats();
+    assertThat(stats.usedBytes()).isEqualTo(0);
+    assertThat(stats.peakUsedBytes()).isEqualTo(8);
+    assertThat(stats.rejectedCount()).isEqualTo(1);
+  }
+
+  @Test public void captureBudgetReservesBeforeReadingErrorBodies() {
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+          }
+        })
+            .captureBudget(8)
+            .build();
+    AtomicLong bytesRead = new AtomicLong();
+    Buffer errorBody = new Buffer().write(new byte[1024 * 1024]);
+    BufferedSource source = Okio.buffer(new ForwardingSource(errorBody) {
+      @Override public long read(Buffer sink, long byteCount) throws IOException {
+        long read = super.read(sink, byteCount);
+        if (read != -1) {
+          bytesRead.addAndGet(read);
+        }
+        return read;
+      }
+    });
+    Buffer captured = new Buffer();
+
+    assertThat(factory.captureBudget.reserve(8)).isEqualTo(8);
+    assertThat(factory.captureErrorBody(source, captured)).isEqualTo(-1);
+    assertThat(bytesRead.get()).isEqualTo(0);
+    assertThat(captured.size()).isEqualTo(0);
+
+    factory.captureBudget.release(4);
+    assertThat(factory.captureErrorBody(source, captured)).isEqualTo(4);
+    assertThat(captured.size()).isEqualTo(4);
+    // The source is read a segment at a time, not to its end.
+    assertThat(bytesRead.get()).isAtMost(8192L);
+    assertThat(factory.captureBudgetStats().usedBytes()).isEqualTo(8);
+  }
+
   @Test public void enqueueLogsOnResponse() throws InterruptedException {
     MockWebServer server = new MockWebServer();
     CountDownLatch latch = new CountDownLatch(1);
@@ -588,6 +785,59 @@ public final class LoggingCallAdapterFactoryTest {
     assertThat(onResponseCalled.get()).isTrue();
   }
 
+  @Test public void logsArguments() throws IOException {
+    MockWebServer server = new MockWebServer();
+    AtomicBoolean onResponseCalled = new AtomicBoolean();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(
+            new LoggingCallAdapterFactory(new LoggingCallAdapterFactory.Logger() {
+              @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+                assertThat(LoggingCallAdapterFactory.pathArgument(call, "a")).isEqualTo("path");
+                assertThat(LoggingCallAdapterFactory.queryArgument(call, "q")).isEqualTo("query");
+                assertThat(LoggingCallAdapterFactory.headerArgument(call, "h"))
+                    .isEqualTo("header");
+                assertThat(LoggingCallAdapterFactory.requestBody(call)).isEqualTo("body");
+                assertThat(LoggingCallAdapterFactory.pathArgument(call, "q")).isNull();
+                onResponseCalled.set(true);
+              }
+
+              @Override public <T> void onFailure(Call<T> call, Throwable t) {
+                throw new AssertionError();
+              }
+            }))
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse());
+    service.postArguments("path", "query", "header", "body").execute();
+    assertThat(onResponseCalled.get()).isTrue();
+  }
+
+  @Test public void logsEndpoint() throws IOException {
+    MockWebServer server = new MockWebServer();
+    AtomicReference<Endpoint> endpoint = new AtomicReference<>();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(
+            new LoggingCallAdapterFactory(new LoggingCallAdapterFactory.Logger() {
+              @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+                endpoint.set(LoggingCallAdapterFactory.endpoint(call));
+              }
+
+              @Override public <T> void onFailure(Call<T> call, Throwable t) {
+                throw new AssertionError();
+              }
+            }))
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse());
+    service.getWithPath("hello").execute();
+    assertThat(endpoint.get().httpMethod()).isEqualTo("GET");
+    assertThat(endpoint.get().relativeUrl()).isEqualTo("/{a}");
+    assertThat(endpoint.get().annotation(GET.class).value()).isEqualTo("/{a}");
+    assertThat(endpoint.get().annotation(POST.class)).isNull();
+  }
+
   @Test public void missingInvocationTagThrows() throws IOException {
     okhttp3.Call.Factory removesInvocation = new okhttp3.Call.Factory() {
       final okhttp3.Call.Factory delegate = new OkHttpClient();
@@ -629,6 +879,1231 @@ public final class LoggingCallAdapterFactoryTest {
     assertThat(onResponseCalled.get()).isTrue();
   }
 
+  @Test public void asyncLogsOffCallingThread() throws Exception {
+    MockWebServer server = new MockWebServer();
+    CountDownLatch latch = new CountDownLatch(1);
+    AtomicReference<Thread> loggerThread = new AtomicReference<>();
+    LoggingCallAdapterFactory factory = new LoggingCallAdapterFactory.Builder(
+        new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+            loggerThread.set(Thread.currentThread());
+            latch.countDown();
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+        })
+        .async(16, 1)
+        .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse());
+    service.getString().execute();
+    assertThat(latch.await(10, SECONDS)).isTrue();
+    assertThat(loggerThread.get()).isNotSameInstanceAs(Thread.currentThread());
+    factory.close();
+  }
+
+  @Test public void asyncErrorBodyIsReadableAfterApplicationConsumesIt() throws Exception {
+    MockWebServer server = new MockWebServer();
+    CountDownLatch applicationConsumed = new CountDownLatch(1);
+    CountDownLatch logged = new CountDownLatch(1);
+    AtomicReference<String> loggedErrorBody = new AtomicReference<>();
+    LoggingCallAdapterFactory factory = new LoggingCallAdapterFactory.Builder(
+        new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+            try {
+              assertThat(applicationConsumed.await(10, SECONDS)).isTrue();
+              loggedErrorBody.set(response.errorBody().string());
+            } catch (InterruptedException | IOException e) {
+              throw new AssertionError(e);
+            }
+            logged.countDown();
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+        })
+        .async(16, 1)
+        .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse().setResponseCode(400).setBody("This request failed."));
+    Response<String> response = service.getString().execute();
+    assertThat(response.errorBody().string()).isEqualTo("This request failed.");
+    applicationConsumed.countDown();
+    assertThat(logged.await(10, SECONDS)).isTrue();
+    assertThat(loggedErrorBody.get()).isEqualTo("This request failed.");
+    factory.close();
+  }
+
+  @Test public void asyncLogsWithEveryWaitStrategy() throws Exception {
+    for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+      MockWebServer server = new MockWebServer();
+      CountDownLatch latch = new CountDownLatch(3);
+      LoggingCallAdapterFactory factory = new LoggingCallAdapterFactory.Builder(
+          new LoggingCallAdapterFactory.Logger() {
+            @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+              latch.countDown();
+            }
+
+            @Override public <T> void onFailure(Call<T> call, Throwable t) {
+              latch.countDown();
+            }
+          })
+          .async(2, 2)
+          .waitStrategy(waitStrategy)
+          .build();
+      Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+          .addCallAdapterFactory(factory)
+          .addConverterFactory(new ToStringConverterFactory())
+          .build();
+      Service service = retrofit.create(Service.class);
+      server.enqueue(new MockResponse());
+      server.enqueue(new MockResponse().setResponseCode(400));
+      server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+      service.getString().execute();
+      service.getString().execute();
+      try {
+        service.getString().execute();
+        throw new AssertionError();
+      } catch (IOException expected) {
+      }
+      assertThat(latch.await(10, SECONDS)).isTrue();
+      factory.close();
+    }
+  }
+
+  @Test public void asyncOverflowPolicies() throws Exception {
+    for (OverflowPolicy overflowPolicy : new OverflowPolicy[] {
+        OverflowPolicy.DROP_NEWEST, OverflowPolicy.DROP_OLDEST, OverflowPolicy.SUMMARIZE
+    }) {
+      MockWebServer server = new MockWebServer();
+      List<Object> loggedBodies = new CopyOnWriteArrayList<>();
+      CountDownLatch logging = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+      LoggingCallAdapterFactory factory = new LoggingCallAdapterFactory.Builder(
+          new LoggingCallAdapterFactory.Logger() {
+            @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+              loggedBodies.add(response.body());
+              logging.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                throw new AssertionError(e);
+              }
+            }
+
+            @Override public <T> void onFailure(Call<T> call, Throwable t) {
+              throw new AssertionError(t);
+            }
+          })
+          .async(2, 1)
+          .overflowPolicy(overflowPolicy)
+          .build();
+      Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+          .addCallAdapterFactory(factory)
+          .addConverterFactory(new ToStringConverterFactory())
+          .build();
+      Service service = retrofit.create(Service.class);
+      for (int i = 1; i <= 4; i++) {
+        server.enqueue(new MockResponse().setBody(Integer.toString(i)));
+      }
+      // The logging thread takes the first event out of the ring and blocks. The second and third
+      // events fill the ring.
+      service.getString().execute();
+      assertThat(logging.await(10, SECONDS)).isTrue();
+      service.getString().execute();
+      service.getString().execute();
+      service.getString().execute();
+      AsyncStats stats = factory.asyncStats();
+      assertThat(stats.queuedCount()).isEqualTo(2);
+      release.countDown();
+      factory.close();
+      switch (overflowPolicy) {
+        case DROP_NEWEST:
+          assertThat(stats.droppedNewestCount()).isEqualTo(1);
+          assertThat(stats.publishedCount()).isEqualTo(3);
+          assertThat(loggedBodies).containsExactly("1", "2", "3").inOrder();
+          break;
+        case DROP_OLDEST:
+          assertThat(stats.droppedOldestCount()).isEqualTo(1);
+          assertThat(stats.droppedNewestCount()).isEqualTo(0);
+          assertThat(stats.publishedCount()).isEqualTo(4);
+          assertThat(loggedBodies).containsExactly("1", "3", "4").inOrder();
+          break;
+        case SUMMARIZE:
+          assertThat(stats.summarizedResponseCount()).isEqualTo(1);
+          assertThat(stats.publishedCount()).isEqualTo(3);
+          assertThat(loggedBodies).containsExactly("1", "2", "3").inOrder();
+          break;
+        default:
+          throw new AssertionError(overflowPolicy);
+      }
+    }
+  }
+
+  @Test public void asyncCloseWaitsForQueuedEvents() throws Exception {
+    MockWebServer server = new MockWebServer();
+    AtomicInteger loggedCount = new AtomicInteger();
+    LoggingCallAdapterFactory factory = new LoggingCallAdapterFactory.Builder(
+        new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+            try {
+              // A slow logger, so events are still queued when the factory is closed.
+              Thread.sleep(20);
+            } catch (InterruptedException e) {
+              throw new AssertionError(e);
+            }
+            loggedCount.incrementAndGet();
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+        })
+        .async(16, 1)
+        .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    for (int i = 0; i < 5; i++) {
+      server.enqueue(new MockResponse());
+      service.getString().execute();
+    }
+    factory.close();
+    assertThat(loggedCount.get()).isEqualTo(5);
+    assertThat(factory.asyncDispatcher.consumers[0].isAlive()).isFalse();
+    assertThat(factory.asyncStats().queuedCount()).isEqualTo(0);
+  }
+
+  @Test public void eventRingDropsOldestOnlyToMakeRoom() {
+    EventRing ring = new EventRing(1);
+    assertThat(ring.slots).hasLength(2);
+    ring.publish(ring.tryClaim());
+    ring.publish(ring.tryClaim());
+    assertThat(ring.tryClaim()).isEqualTo(-1);
+    // The oldest event is queued in the slot the next claim needs.
+    long oldest = ring.tryTakeOldest();
+    assertThat(oldest).isEqualTo(0);
+    ring.release(oldest);
+    long position = ring.tryClaim();
+    assertThat(position).isEqualTo(2);
+    ring.publish(position);
+    // A consumer took the slot the next claim needs, and has not exchanged its event yet.
+    long taken = ring.tryTake();
+    assertThat(taken).isEqualTo(1);
+    assertThat(ring.tryClaim()).isEqualTo(-1);
+    assertThat(ring.tryTakeOldest()).isEqualTo(-1);
+    EventRing.CallEvent spare = new EventRing.CallEvent();
+    EventRing.CallEvent event = ring.exchange(taken, spare);
+    assertThat(event).isNotSameInstanceAs(spare);
+    // The slot is free while the consumer logs the event.
+    assertThat(ring.tryClaim()).isEqualTo(3);
+    assertThat(ring.slot(3)).isSameInstanceAs(spare);
+  }
+
+  @Test public void asyncBlockOverflowPolicy() throws Exception {
+    MockWebServer server = new MockWebServer();
+    CountDownLatch logging = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    LoggingCallAdapterFactory factory = new LoggingCallAdapterFactory.Builder(
+        new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+            logging.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new AssertionError(e);
+            }
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+        })
+        .async(2, 1)
+        .overflowPolicy(OverflowPolicy.BLOCK)
+        .overflowBlockTimeout(10, MILLISECONDS)
+        .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    for (int i = 0; i < 4; i++) {
+      server.enqueue(new MockResponse());
+    }
+    // The logging thread takes the first event and blocks. The second and third events fill the
+    // ring.
+    service.getString().execute();
+    assertThat(logging.await(10, SECONDS)).isTrue();
+    service.getString().execute();
+    service.getString().execute();
+    // The fourth event waits for room until the timeout, then is dropped.
+    service.getString().execute();
+    AsyncStats stats = factory.asyncStats();
+    assertThat(stats.blockTimeoutCount()).isEqualTo(1);
+    assertThat(stats.blockedCount()).isEqualTo(0);
+    assertThat(stats.publishedCount()).isEqualTo(3);
+    release.countDown();
+    factory.close();
+  }
+
+  @Test public void asyncBlockOverflowPolicyWaitsForRoom() throws Exception {
+    MockWebServer server = new MockWebServer();
+    CountDownLatch logging = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    LoggingCallAdapterFactory factory = new LoggingCallAdapterFactory.Builder(
+        new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+            logging.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new AssertionError(e);
+            }
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+        })
+        .async(2, 1)
+        .overflowPolicy(OverflowPolicy.BLOCK)
+        .overflowBlockTimeout(10, SECONDS)
+        .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    for (int i = 0; i < 4; i++) {
+      server.enqueue(new MockResponse());
+    }
+    service.getString().execute();
+    assertThat(logging.await(10, SECONDS)).isTrue();
+    service.getString().execute();
+    service.getString().execute();
+    Thread caller = new Thread(() -> {
+      try {
+        service.getString().execute();
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    });
+    caller.start();
+    // Wait until the caller is parked waiting for room in the ring.
+    while (LockSupport.getBlocker(caller) != factory.asyncDispatcher) {
+      assertThat(caller.isAlive()).isTrue();
+      Thread.yield();
+    }
+    release.countDown();
+    caller.join(SECONDS.toMillis(10));
+    assertThat(caller.isAlive()).isFalse();
+    AsyncStats stats = factory.asyncStats();
+    assertThat(stats.blockedCount()).isEqualTo(1);
+    assertThat(stats.blockTimeoutCount()).isEqualTo(0);
+    assertThat(stats.publishedCount()).isEqualTo(4);
+    factory.close();
+  }
+
+  @Test public void metricsRecordLatencies() throws IOException {
+    MockWebServer server = new MockWebServer();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+          }
+        })
+            .metrics(true)
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    // Fail first, so OkHttp does not retry the request on a pooled connection.
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+    server.enqueue(new MockResponse());
+    try {
+      service.getString().execute();
+      throw new AssertionError();
+    } catch (IOException expected) {
+    }
+    service.getString().execute();
+    Map<Endpoint, LatencySnapshot> snapshots = factory.latencySnapshots();
+    assertThat(snapshots).hasSize(1);
+    Endpoint endpoint = snapshots.keySet().iterator().next();
+    assertThat(endpoint.relativeUrl()).isEqualTo("/");
+    LatencySnapshot snapshot = snapshots.get(endpoint);
+    assertThat(snapshot.count()).isEqualTo(2);
+    assertThat(snapshot.p50()).isGreaterThan(0L);
+    assertThat(snapshot.p50()).isAtMost(snapshot.max());
+  }
+
+  @Test public void metricsCountCalls() throws IOException {
+    MockWebServer server = new MockWebServer();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+          }
+        })
+            .metrics(true)
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    // Fail first, so OkHttp does not retry the request on a pooled connection.
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+    server.enqueue(new MockResponse().setBody("Hello"));
+    server.enqueue(new MockResponse().setResponseCode(404));
+    server.enqueue(new MockResponse());
+    try {
+      service.getString().execute();
+      throw new AssertionError();
+    } catch (IOException expected) {
+    }
+    service.getString().execute();
+    service.getString().execute();
+    service.postBody("Hi").execute();
+    Map<Endpoint, EndpointStats> stats = factory.endpointStats();
+    assertThat(stats).hasSize(2);
+    Iterator<Map.Entry<Endpoint, EndpointStats>> entries = stats.entrySet().iterator();
+    Map.Entry<Endpoint, EndpointStats> get = entries.next();
+    assertThat(get.getKey().httpMethod()).isEqualTo("GET");
+    assertThat(get.getValue().callCount()).isEqualTo(3);
+    assertThat(get.getValue().successCount()).isEqualTo(1);
+    assertThat(get.getValue().statusClassCount(4)).isEqualTo(1);
+    assertThat(get.getValue().ioFailureCount()).isEqualTo(1);
+    assertThat(get.getValue().failureCount()).isEqualTo(1);
+    assertThat(get.getValue().responseBytes()).isEqualTo(5);
+    Map.Entry<Endpoint, EndpointStats> post = entries.next();
+    assertThat(post.getKey().httpMethod()).isEqualTo("POST");
+    assertThat(post.getValue().callCount()).isEqualTo(1);
+    assertThat(post.getValue().requestBytes()).isEqualTo(2);
+  }
+
+  @Test public void metricsReuseEndpointsAcrossRetrofitInstances() throws IOException {
+    MockWebServer server = new MockWebServer();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+          }
+        })
+            .metrics(true)
+            .build();
+    List<Call<String>> calls = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      // Like an app that creates a Retrofit per user.
+      Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+          .addCallAdapterFactory(factory)
+          .addConverterFactory(new ToStringConverterFactory())
+          .build();
+      server.enqueue(new MockResponse());
+      Call<String> call = retrofit.create(Service.class).getString();
+      call.execute();
+      calls.add(call);
+    }
+    Endpoint endpoint = LoggingCallAdapterFactory.endpoint(calls.get(0));
+    assertThat(LoggingCallAdapterFactory.endpoint(calls.get(1))).isSameInstanceAs(endpoint);
+    assertThat(LoggingCallAdapterFactory.endpoint(calls.get(2))).isSameInstanceAs(endpoint);
+    Map<Endpoint, EndpointStats> stats = factory.endpointStats();
+    assertThat(stats).hasSize(1);
+    assertThat(stats.get(endpoint).callCount()).isEqualTo(3);
+  }
+
+  @Test public void metricsAreNullWhenDisabled() {
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+          }
+        });
+    assertThat(factory.latencySnapshots()).isNull();
+    assertThat(factory.endpointStats()).isNull();
+  }
+
+  @Test public void latencyHistogramBuckets() {
+    for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+      long highest = LatencyHistogram.highestValue(bucket);
+      assertThat(LatencyHistogram.bucket(highest)).isEqualTo(bucket);
+      assertThat(LatencyHistogram.bucket(highest + 1))
+          .isEqualTo(Math.min(bucket + 1, LatencyHistogram.BUCKET_COUNT - 1));
+    }
+    assertThat(LatencyHistogram.bucket(-1)).isEqualTo(0);
+    assertThat(LatencyHistogram.bucket(Long.MAX_VALUE))
+        .isEqualTo(LatencyHistogram.BUCKET_COUNT - 1);
+  }
+
+  @Test public void latencySnapshotsRoundTripAndMerge() throws IOException {
+    LatencyHistogram first = new LatencyHistogram();
+    LatencyHistogram second = new LatencyHistogram();
+    for (long i = 1; i <= 1_000; i++) {
+      first.record(i * 1_000_000);
+      second.record(i * 2_000_000);
+    }
+    Buffer buffer = new Buffer();
+    first.snapshot().writeTo(buffer);
+    LatencySnapshot read = LatencySnapshot.read(buffer);
+    assertThat(buffer.exhausted()).isTrue();
+    assertThat(read.count()).isEqualTo(1_000);
+    assertThat(read.p99()).isEqualTo(first.snapshot().p99());
+    ByteString encoded = second.snapshot().toByteString();
+    assertThat(encoded.size()).isLessThan(500);
+    LatencySnapshot merged = read.merge(LatencySnapshot.of(encoded));
+    assertThat(merged.count()).isEqualTo(2_000);
+    // The 1,000th of the 2,000 latencies is 667ms.
+    assertThat(merged.p50()).isAtLeast(667_000_000L);
+    assertThat(merged.p50()).isAtMost(751_000_000L);
+    assertThat(merged.max()).isAtLeast(2_000_000_000L);
+    try {
+      LatencySnapshot.of(ByteString.decodeHex("02"));
+      throw new AssertionError();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void openMetricsExporter() throws IOException {
+    MockWebServer server = new MockWebServer();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+          }
+        })
+            .metrics(true)
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse().setBody("Hello"));
+    service.getWithPath("hello").execute();
+    StringBuilder out = new StringBuilder();
+    new OpenMetricsExporter(factory).write(out);
+    String text = out.toString();
+    assertThat(text).startsWith("# TYPE retrofit_calls counter\n");
+    assertThat(text).contains("retrofit_calls_total{method=\"GET\",url=\"/{a}\"} 1\n");
+    assertThat(text).contains(
+        "retrofit_responses_total{method=\"GET\",url=\"/{a}\",status_class=\"2xx\"} 1\n");
+    assertThat(text).contains("retrofit_response_bytes_total{method=\"GET\",url=\"/{a}\"} 5\n");
+    assertThat(text).contains("# UNIT retrofit_call_duration_seconds seconds\n");
+    assertThat(text).contains(
+        "retrofit_call_duration_seconds_count{method=\"GET\",url=\"/{a}\"} 1\n");
+    assertThat(text).endsWith("# EOF\n");
+    Buffer buffer = new Buffer();
+    new OpenMetricsExporter(factory).write(buffer);
+    assertThat(buffer.readUtf8()).isEqualTo(text);
+  }
+
+  @Test public void openMetricsExporterMergesServiceMethodsWithTheSameLabels()
+      throws IOException {
+    MockWebServer server = new MockWebServer();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+          }
+        })
+            .metrics(true)
+            .build();
+    // Each Retrofit instance creates its own call adapters, so the factory sees two service methods
+    // with the same labels.
+    for (int i = 0; i < 2; i++) {
+      Service service = new Retrofit.Builder().baseUrl(server.url("/"))
+          .addCallAdapterFactory(factory)
+          .addConverterFactory(new ToStringConverterFactory())
+          .build()
+          .create(Service.class);
+      server.enqueue(new MockResponse());
+      service.getWithPath("hello").execute();
+    }
+    assertThat(factory.endpointStats()).hasSize(2);
+    StringBuilder out = new StringBuilder();
+    new OpenMetricsExporter(factory).write(out);
+    String text = out.toString();
+    String calls = "retrofit_calls_total{method=\"GET\",url=\"/{a}\"}";
+    assertThat(text).contains(calls + " 2\n");
+    assertThat(text.indexOf(calls)).isEqualTo(text.lastIndexOf(calls));
+    assertThat(text).contains(
+        "retrofit_call_duration_seconds_count{method=\"GET\",url=\"/{a}\"} 2\n");
+  }
+
+  @Test public void openMetricsExporterEscapesLabelValues() throws IOException {
+    StringBuilder out = new StringBuilder();
+    OpenMetricsExporter.appendEscaped(out, "a\\b\"c\nd");
+    assertThat(out.toString()).isEqualTo("a\\\\b\\\"c\\nd");
+  }
+
+  @Test public void metricsServer() throws IOException {
+    MockWebServer server = new MockWebServer();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+          }
+        })
+            .metrics(true)
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse().setResponseCode(404));
+    service.getWithPath("hello").execute();
+    OkHttpClient client = new OkHttpClient();
+    try (MetricsServer metricsServer = MetricsServer.start(factory, 0)) {
+      String baseUrl = "http://127.0.0.1:" + metricsServer.address().getPort();
+      try (okhttp3.Response metrics = client.newCall(
+          new Request.Builder().url(baseUrl + "/metrics").build()).execute()) {
+        assertThat(metrics.header("Content-Type")).isEqualTo(OpenMetricsExporter.CONTENT_TYPE);
+        assertThat(metrics.body().string())
+            .contains("retrofit_calls_total{method=\"GET\",url=\"/{a}\"} 1\n");
+      }
+      try (okhttp3.Response calls = client.newCall(
+          new Request.Builder().url(baseUrl + "/calls").build()).execute()) {
+        assertThat(calls.body().string()).contains(" GET /{a} 404 ");
+      }
+      try (okhttp3.Response missing = client.newCall(
+          new Request.Builder().url(baseUrl + "/missing").build()).execute()) {
+        assertThat(missing.code()).isEqualTo(404);
+      }
+    }
+  }
+
+  @Test public void flightRecorderEventsDoNotAffectLogging() throws IOException {
+    MockWebServer server = new MockWebServer();
+    AtomicBoolean onResponseCalled = new AtomicBoolean();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(
+            new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+              @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+                onResponseCalled.set(true);
+              }
+
+              @Override public <T> void onFailure(Call<T> call, Throwable t) {
+                throw new AssertionError(t);
+              }
+            })
+                .flightRecorderEvents(true)
+                .build())
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse().setBody("Hello"));
+    assertThat(service.getString().execute().body()).isEqualTo("Hello");
+    assertThat(onResponseCalled.get()).isTrue();
+  }
+
+  @Test public void mbean() throws Exception {
+    MockWebServer server = new MockWebServer();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+          }
+        })
+            .metrics(true)
+            .mbean("test")
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse());
+    server.enqueue(new MockResponse().setResponseCode(500));
+    service.getString().execute();
+    service.getString().execute();
+    MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(
+        "com.nightlynexus.retrofit.logging:type=LoggingCallAdapterFactory,name=\"test\"");
+    assertThat(mbeanServer.getAttribute(name, "CallCount")).isEqualTo(2L);
+    assertThat(mbeanServer.getAttribute(name, "InFlightCallCount")).isEqualTo(0L);
+    assertThat(mbeanServer.getAttribute(name, "ErrorRate")).isEqualTo(0.5);
+    assertThat((String[]) mbeanServer.getAttribute(name, "EndpointLatencies")).hasLength(1);
+    mbeanServer.setAttribute(name, new Attribute("ErrorBodyCaptureLimit", 4L));
+    assertThat(factory.errorBodyCaptureLimit).isEqualTo(4);
+    mbeanServer.invoke(name, "resetStatistics", null, null);
+    assertThat(mbeanServer.getAttribute(name, "CallCount")).isEqualTo(0L);
+    factory.close();
+    assertThat(mbeanServer.isRegistered(name)).isFalse();
+  }
+
+  @Test public void mbeanCallsPerSecondIsTrailingRate() {
+    long start = System.nanoTime();
+    FactoryMXBean bean = new FactoryMXBean(null, start);
+    long second = SECONDS.toNanos(1);
+    assertThat(bean.callsPerSecond(start + 2 * second, 20)).isEqualTo(10.0);
+    // Another client reading the rate right after gets the same rate.
+    assertThat(bean.callsPerSecond(start + 2 * second, 20)).isEqualTo(10.0);
+    assertThat(bean.callsPerSecond(start + 4 * second, 60)).isEqualTo(15.0);
+    // The samples older than the window are no longer used.
+    assertThat(bean.callsPerSecond(start + 63 * second, 100)).isEqualTo(40.0 / 59);
+    // If every sample is older than the window, the rate is since the newest one.
+    assertThat(bean.callsPerSecond(start + 163 * second, 200)).isEqualTo(1.0);
+  }
+
+  @Test public void inFlightCountDoesNotDriftWhenCallsAreRejected() throws IOException {
+    MockWebServer server = new MockWebServer();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+          }
+        })
+            .metrics(true)
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse());
+    Call<String> call = service.getString();
+    call.execute();
+    try {
+      call.enqueue(new Callback<String>() {
+        @Override public void onResponse(Call<String> call, Response<String> response) {
+          throw new AssertionError();
+        }
+
+        @Override public void onFailure(Call<String> call, Throwable t) {
+          throw new AssertionError(t);
+        }
+      });
+      throw new AssertionError();
+    } catch (IllegalStateException expected) {
+    }
+    assertThat(factory.metrics.inFlight.sum()).isEqualTo(0);
+  }
+
+  @Test public void mbeanNameConflictDoesNotLeakLoggingThreads() {
+    LoggingCallAdapterFactory.Logger logger = new LoggingCallAdapterFactory.Logger() {
+      @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+      }
+
+      @Override public <T> void onFailure(Call<T> call, Throwable t) {
+      }
+    };
+    LoggingCallAdapterFactory factory = new LoggingCallAdapterFactory.Builder(logger)
+        .mbean("conflict")
+        .build();
+    try {
+      int threadCount = Thread.activeCount();
+      LoggingCallAdapterFactory.Builder conflicting = new LoggingCallAdapterFactory.Builder(logger)
+          .async(16, 2)
+          .waitStrategy(WaitStrategy.BUSY_SPIN)
+          .mbean("conflict");
+      try {
+        conflicting.build();
+        throw new AssertionError();
+      } catch (IllegalStateException expected) {
+      }
+      // The logging threads stop soon after the dispatcher is closed.
+      long deadline = System.nanoTime() + SECONDS.toNanos(10);
+      while (Thread.activeCount() > threadCount && System.nanoTime() < deadline) {
+        Thread.yield();
+      }
+      assertThat(Thread.activeCount()).isAtMost(threadCount);
+    } finally {
+      factory.close();
+    }
+  }
+
+  @Test public void sampleRateSkipsOnlySuccessfulResponses() throws IOException {
+    MockWebServer server = new MockWebServer();
+    List<Integer> loggedCodes = new ArrayList<>();
+    AtomicBoolean onFailureCalled = new AtomicBoolean();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(
+            new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+              @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+                loggedCodes.add(response.code());
+              }
+
+              @Override public <T> void onFailure(Call<T> call, Throwable t) {
+                onFailureCalled.set(true);
+              }
+            })
+                .sampleRate(0)
+                .build())
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    // Fail first, so OkHttp does not retry the request on a pooled connection.
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+    server.enqueue(new MockResponse());
+    server.enqueue(new MockResponse().setResponseCode(500));
+    try {
+      service.getString().execute();
+      throw new AssertionError();
+    } catch (IOException expected) {
+    }
+    service.getString().execute();
+    service.getString().execute();
+    assertThat(onFailureCalled.get()).isTrue();
+    assertThat(loggedCodes).containsExactly(500);
+  }
+
+  @Test public void tailSamplingLogsSlowCalls() throws IOException {
+    MockWebServer server = new MockWebServer();
+    List<String> loggedBodies = new ArrayList<>();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+            loggedBodies.add((String) response.body());
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+        })
+            .tailSampling(0, 500, MILLISECONDS)
+            .metrics(true)
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse().setBody("Fast"));
+    server.enqueue(new MockResponse().setBody("Slow").setHeadersDelay(1, SECONDS));
+    service.getString().execute();
+    service.getString().execute();
+    assertThat(loggedBodies).containsExactly("Slow");
+    EndpointStats stats = factory.endpointStats().values().iterator().next();
+    assertThat(stats.callCount()).isEqualTo(2);
+    assertThat(stats.unloggedCount()).isEqualTo(1);
+  }
+
+  @Test public void samplerChecksRates() {
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+          }
+        })
+            .sampler(endpoint -> 2)
+            .build();
+    Service service = new Retrofit.Builder().baseUrl("https://example.com/")
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build()
+        .create(Service.class);
+    try {
+      service.getString();
+      throw new AssertionError();
+    } catch (IllegalArgumentException expected) {
+      // Retrofit wraps the exception from the call adapter factory.
+      assertThat(expected.getCause()).hasMessageThat().contains("rate > 1: 2.0");
+    }
+  }
+
+  @Test public void adaptiveSamplingLevel() {
+    // Everything fits in the budget.
+    assertThat(AdaptiveSampler.level(new long[] {1, 2, 3}, 3, 6)).isPositiveInfinity();
+    // The rare endpoint logs all 2 of its calls, and the busy ones split the other 10.
+    assertThat(AdaptiveSampler.level(new long[] {100, 2, 1000}, 3, 12)).isEqualTo(5);
+    // Only the first count entries are considered.
+    assertThat(AdaptiveSampler.level(new long[] {4, 4, 1000}, 2, 4)).isEqualTo(2);
+  }
+
+  @Test public void adaptiveSamplingSetsAsideAlwaysLoggedEvents() {
+    AdaptiveSampler sampler = new AdaptiveSampler(1000);
+    Endpoint failing = new Endpoint(new Annotation[0], -1, null);
+    Endpoint healthy = new Endpoint(new Annotation[0], -1, null);
+    sampler.register(failing);
+    sampler.register(healthy);
+    // The first window ends an hour from now.
+    long start = System.nanoTime() + HOURS.toNanos(1);
+    sampler.onStart(failing, start);
+    // In the second window, which lasts one second, 900 of the failing endpoint's 1000 calls are
+    // errors, which are logged regardless of the sample.
+    for (int i = 0; i < 1000; i++) {
+      sampler.onStart(failing, start);
+    }
+    for (int i = 0; i < 900; i++) {
+      sampler.onAlwaysLogged();
+    }
+    // The healthy endpoint's 1000 calls include the call that ends the window.
+    for (int i = 1; i < 1000; i++) {
+      sampler.onStart(healthy, start);
+    }
+    sampler.onStart(healthy, start + AdaptiveSampler.WINDOW_NANOS);
+    // The other 100 events of the budget are split evenly.
+    assertThat(failing.sampleRate).isEqualTo(0.05);
+    assertThat(healthy.sampleRate).isEqualTo(0.05);
+    double loggedEvents = 900 + 100 * failing.sampleRate + 1000 * healthy.sampleRate;
+    assertThat(loggedEvents).isAtMost(1000.0);
+
+    // In the third window, the errors alone exceed the budget, so only they are logged.
+    long thirdStart = start + AdaptiveSampler.WINDOW_NANOS;
+    for (int i = 1; i < 2000; i++) {
+      sampler.onStart(failing, thirdStart);
+    }
+    for (int i = 0; i < 2000; i++) {
+      sampler.onAlwaysLogged();
+    }
+    sampler.onStart(healthy, thirdStart + AdaptiveSampler.WINDOW_NANOS);
+    assertThat(failing.sampleRate).isEqualTo(0.0);
+    assertThat(healthy.sampleRate).isEqualTo(0.0);
+  }
+
+  @Test public void sampleRateOfLoggedCalls() throws IOException {
+    MockWebServer server = new MockWebServer();
+    List<Double> sampleRates = new ArrayList<>();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+            sampleRates.add(LoggingCallAdapterFactory.sampleRate(call));
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+        })
+            .sampleRate(0.5)
+            .adaptiveSampling(1000)
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse().setResponseCode(500));
+    Call<String> error = service.getString();
+    error.execute();
+    // Errors are always logged.
+    assertThat(sampleRates).containsExactly(1.0);
+    sampleRates.clear();
+
+    // Drive the sampler's clock. The first window ends an hour from now, and its budget covers
+    // every call.
+    Endpoint endpoint = LoggingCallAdapterFactory.endpoint(error);
+    long start = System.nanoTime() + HOURS.toNanos(1);
+    factory.adaptiveSampler.onStart(endpoint, start);
+    assertThat(endpoint.sampleRate).isEqualTo(1.0);
+    // The second window lasts exactly one second and has 4000 calls, so its budget of 1000 events
+    // logs a quarter of them.
+    for (int i = 1; i < 4000; i++) {
+      factory.adaptiveSampler.onStart(endpoint, start);
+    }
+    factory.adaptiveSampler.onStart(endpoint, start + AdaptiveSampler.WINDOW_NANOS);
+    assertThat(endpoint.sampleRate).isEqualTo(0.25);
+
+    // The next window ends in over an hour, so the calls use that rate.
+    for (int i = 0; i < 40; i++) {
+      server.enqueue(new MockResponse());
+      service.getString().execute();
+    }
+    assertThat(sampleRates).isNotEmpty();
+    for (double sampleRate : sampleRates) {
+      assertThat(sampleRate).isEqualTo(0.25);
+    }
+  }
+
+  @Test public void rateLimitSuppressesEvents() throws IOException {
+    MockWebServer server = new MockWebServer();
+    List<Integer> loggedCodes = new ArrayList<>();
+    List<Throwable> loggedFailures = new ArrayList<>();
+    Map<String, Long> suppressed = new LinkedHashMap<>();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+            loggedCodes.add(response.code());
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            loggedFailures.add(t);
+          }
+
+          @Override public void onSuppressed(Endpoint endpoint, int statusClass,
+              Class<? extends Throwable> failureClass, long count) {
+            // A summary may also be reported if the test takes longer than a second.
+            suppressed.merge(endpoint.relativeUrl() + " " + statusClass + " " + failureClass,
+                count, Long::sum);
+          }
+        })
+            // One token every 1000 seconds, so none are added during the test.
+            .rateLimit(0.001, 2)
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    // Fail first, so OkHttp does not retry the request on a pooled connection.
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+    try {
+      service.getString().execute();
+      throw new AssertionError();
+    } catch (IOException expected) {
+    }
+    for (int i = 0; i < 5; i++) {
+      server.enqueue(new MockResponse().setResponseCode(500));
+      service.getString().execute();
+    }
+    // Successful responses have their own bucket.
+    server.enqueue(new MockResponse());
+    service.getString().execute();
+    // Failures have their own bucket.
+    assertThat(loggedFailures).hasSize(1);
+    assertThat(loggedCodes).containsExactly(500, 500, 200);
+    factory.close();
+    assertThat(suppressed).containsExactly("/ 5 null", 3L);
+  }
+
+  @Test public void rateLimitSummarizesPeriodically() {
+    List<String> suppressed = new ArrayList<>();
+    LogRateLimiter rateLimiter = new LogRateLimiter(new LoggingCallAdapterFactory.Logger() {
+      @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+      }
+
+      @Override public <T> void onFailure(Call<T> call, Throwable t) {
+      }
+
+      @Override public void onSuppressed(Endpoint endpoint, int statusClass,
+          Class<? extends Throwable> failureClass, long count) {
+        suppressed.add(statusClass + " " + failureClass.getSimpleName() + " " + count);
+      }
+    }, Runnable::run, 0.001, 1);
+    Endpoint endpoint = new Endpoint(new Annotation[0], -1, null);
+    Endpoint otherEndpoint = new Endpoint(new Annotation[0], -1, null);
+    rateLimiter.register(endpoint);
+    rateLimiter.register(otherEndpoint);
+    long nanos = System.nanoTime();
+    IOException failure = new IOException();
+    assertThat(rateLimiter.tryAcquireFailure(endpoint, failure, nanos)).isTrue();
+    assertThat(rateLimiter.tryAcquireFailure(endpoint, failure, nanos)).isFalse();
+    assertThat(rateLimiter.tryAcquireFailure(endpoint, failure, nanos)).isFalse();
+    assertThat(suppressed).isEmpty();
+    // Another service method's calls do not report the storm.
+    assertThat(rateLimiter.tryAcquireResponse(otherEndpoint, 200, nanos)).isTrue();
+    rateLimiter.summarizeIfDue(nanos);
+    assertThat(suppressed).isEmpty();
+    // The storm has ended. It is reported after the summary interval.
+    long later = nanos + 2 * LogRateLimiter.SUMMARY_INTERVAL_NANOS;
+    rateLimiter.summarizeIfDue(later);
+    assertThat(suppressed).containsExactly("-1 IOException 2");
+    // Nothing is reported twice.
+    rateLimiter.flush();
+    assertThat(suppressed).hasSize(1);
+  }
+
+  @Test public void asyncRateLimitSummarizesOnLoggingThread() throws Exception {
+    MockWebServer server = new MockWebServer();
+    CountDownLatch latch = new CountDownLatch(1);
+    AtomicReference<Thread> summaryThread = new AtomicReference<>();
+    AtomicLong summaryCount = new AtomicLong();
+    LoggingCallAdapterFactory factory = new LoggingCallAdapterFactory.Builder(
+        new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+
+          @Override public void onSuppressed(Endpoint endpoint, int statusClass,
+              Class<? extends Throwable> failureClass, long count) {
+            summaryThread.set(Thread.currentThread());
+            summaryCount.set(count);
+            latch.countDown();
+          }
+        })
+        .async(16, 1)
+        .rateLimit(0.001, 1)
+        .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse());
+    server.enqueue(new MockResponse());
+    service.getString().execute();
+    service.getString().execute();
+    // No call completes after the storm. The logging thread reports it after the summary interval.
+    assertThat(latch.await(10, SECONDS)).isTrue();
+    assertThat(summaryCount.get()).isEqualTo(1);
+    assertThat(summaryThread.get()).isNotSameInstanceAs(Thread.currentThread());
+    assertThat(summaryThread.get().getName()).isEqualTo("LoggingCallAdapterFactory Logger 1");
+    factory.close();
+  }
+
+  @Test public void deduplicateErrors() throws IOException {
+    MockWebServer server = new MockWebServer();
+    List<Integer> loggedCodes = new ArrayList<>();
+    List<ErrorBurst> bursts = new ArrayList<>();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+            loggedCodes.add(response.code());
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+
+          @Override public void onErrorBurst(ErrorBurst burst) {
+            bursts.add(burst);
+          }
+        })
+            .deduplicateErrors(1, HOURS)
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse().setResponseCode(503).setBody("Request 1 failed."));
+    server.enqueue(new MockResponse().setResponseCode(503).setBody("Request 22 failed."));
+    server.enqueue(new MockResponse().setResponseCode(500).setBody("Request 333 failed."));
+    server.enqueue(new MockResponse().setResponseCode(503).setBody("Request 4444 failed."));
+    server.enqueue(new MockResponse().setResponseCode(503).setBody("Unavailable"));
+    for (int i = 0; i < 5; i++) {
+      Response<String> response = service.getString().execute();
+      // The application still gets the whole error body.
+      assertThat(response.errorBody().string()).isNotEmpty();
+    }
+    assertThat(loggedCodes).containsExactly(503, 500, 503);
+    assertThat(bursts).isEmpty();
+    factory.close();
+    assertThat(bursts).hasSize(1);
+    ErrorBurst burst = bursts.get(0);
+    assertThat(burst.code()).isEqualTo(503);
+    assertThat(burst.errorMessage()).isEqualTo("Request 1 failed.");
+    assertThat(burst.count()).isEqualTo(3);
+    assertThat(burst.lastTimeMillis()).isAtLeast(burst.firstTimeMillis());
+  }
+
+  @Test public void suppressedErrorsDoNotStartBursts() throws IOException {
+    MockWebServer server = new MockWebServer();
+    List<Integer> loggedCodes = new ArrayList<>();
+    List<ErrorBurst> bursts = new ArrayList<>();
+    AtomicLong suppressedCount = new AtomicLong();
+    LoggingCallAdapterFactory factory =
+        new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+            loggedCodes.add(response.code());
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+
+          @Override public void onSuppressed(Endpoint endpoint, int statusClass,
+              Class<? extends Throwable> failureClass, long count) {
+            suppressedCount.addAndGet(count);
+          }
+
+          @Override public void onErrorBurst(ErrorBurst burst) {
+            bursts.add(burst);
+          }
+        })
+            .deduplicateErrors(1, HOURS)
+            // One token every 1000 seconds, so none are added during the test.
+            .rateLimit(0.001, 1)
+            .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse().setResponseCode(503).setBody("Unavailable"));
+    server.enqueue(new MockResponse().setResponseCode(500).setBody("Internal error"));
+    server.enqueue(new MockResponse().setResponseCode(500).setBody("Internal error"));
+    server.enqueue(new MockResponse().setResponseCode(503).setBody("Unavailable"));
+    for (int i = 0; i < 4; i++) {
+      service.getString().execute();
+    }
+    assertThat(loggedCodes).containsExactly(503);
+    factory.close();
+    // The suppressed error was not logged, so it is not an exemplar and its repeat is suppressed.
+    assertThat(suppressedCount.get()).isEqualTo(2);
+    assertThat(bursts).hasSize(1);
+    ErrorBurst burst = bursts.get(0);
+    assertThat(burst.code()).isEqualTo(503);
+    assertThat(burst.count()).isEqualTo(2);
+  }
+
+  @Test public void asyncErrorBurstsReportOnLoggingThread() throws Exception {
+    MockWebServer server = new MockWebServer();
+    CountDownLatch latch = new CountDownLatch(1);
+    AtomicReference<Thread> burstThread = new AtomicReference<>();
+    AtomicReference<ErrorBurst> burst = new AtomicReference<>();
+    LoggingCallAdapterFactory factory = new LoggingCallAdapterFactory.Builder(
+        new LoggingCallAdapterFactory.Logger() {
+          @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+          }
+
+          @Override public <T> void onFailure(Call<T> call, Throwable t) {
+            throw new AssertionError(t);
+          }
+
+          @Override public void onErrorBurst(ErrorBurst errorBurst) {
+            burstThread.set(Thread.currentThread());
+            burst.set(errorBurst);
+            latch.countDown();
+          }
+        })
+        .async(16, 1)
+        .deduplicateErrors(1, SECONDS)
+        .build();
+    Retrofit retrofit = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(factory)
+        .addConverterFactory(new ToStringConverterFactory())
+        .build();
+    Service service = retrofit.create(Service.class);
+    server.enqueue(new MockResponse().setResponseCode(503).setBody("Unavailable"));
+    server.enqueue(new MockResponse().setResponseCode(503).setBody("Unavailable"));
+    service.getString().execute();
+    service.getString().execute();
+    // No call completes after the burst. The logging thread sweeps it once the window ends.
+    assertThat(latch.await(10, SECONDS)).isTrue();
+    assertThat(burst.get().count()).isEqualTo(2);
+    assertThat(burstThread.get().getName()).isEqualTo("LoggingCallAdapterFactory Logger 1");
+    factory.close();
+  }
+
   static final class TestCall {
     static final class AdapterFactory extends CallAdapter.Factory {
       @Override public CallAdapter<?, ?> get(Type returnType, Annotation[] annotations,
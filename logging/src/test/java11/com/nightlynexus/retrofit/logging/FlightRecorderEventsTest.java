@@ -0,0 +1,98 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import retrofit2.Call;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(JUnit4.class)
+public final class FlightRecorderEventsTest {
+  static final String EVENT_NAME = "com.nightlynexus.retrofit.logging.Call";
+
+  interface Service {
+    @GET("/") Call<ResponseBody> get();
+  }
+
+  @Test public void recordsCallEvents() throws IOException {
+    MockWebServer server = new MockWebServer();
+    Service service = new Retrofit.Builder().baseUrl(server.url("/"))
+        .addCallAdapterFactory(
+            new LoggingCallAdapterFactory.Builder(new LoggingCallAdapterFactory.Logger() {
+              @Override public <T> void onResponse(Call<T> call, Response<T> response) {
+              }
+
+              @Override public <T> void onFailure(Call<T> call, Throwable t) {
+              }
+            })
+                .flightRecorderEvents(true)
+                .build())
+        .build()
+        .create(Service.class);
+    // Fail first, so OkHttp does not retry the request on a pooled connection.
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+    server.enqueue(new MockResponse().setBody("Hello"));
+
+    IOException failureThrown;
+    List<RecordedEvent> events;
+    Path file = Files.createTempFile("calls", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(EVENT_NAME);
+      recording.start();
+      try {
+        service.get().execute();
+        throw new AssertionError();
+      } catch (IOException expected) {
+        failureThrown = expected;
+      }
+      service.get().execute().body().close();
+      recording.stop();
+      recording.dump(file);
+      events = new ArrayList<>();
+      for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+        if (event.getEventType().getName().equals(EVENT_NAME)) {
+          events.add(event);
+        }
+      }
+    } finally {
+      Files.delete(file);
+    }
+
+    assertThat(events).hasSize(2);
+    // Both calls run on this thread, so their events are in order.
+    RecordedEvent failure = events.get(0);
+    assertThat(failure.getString("httpMethod")).isEqualTo("GET");
+    assertThat(failure.getString("relativeUrl")).isEqualTo("/");
+    assertThat(failure.getInt("status")).isEqualTo(0);
+    assertThat(failure.getClass("exceptionClass").getName())
+        .isEqualTo(failureThrown.getClass().getName());
+    assertThat(failure.getLong("requestBytes")).isEqualTo(-1);
+    assertThat(failure.getLong("responseBytes")).isEqualTo(-1);
+    assertThat(failure.getDuration("callDuration").toNanos()).isGreaterThan(0L);
+
+    RecordedEvent response = events.get(1);
+    assertThat(response.getString("httpMethod")).isEqualTo("GET");
+    assertThat(response.getString("relativeUrl")).isEqualTo("/");
+    assertThat(response.getInt("status")).isEqualTo(200);
+    assertThat(response.getClass("exceptionClass")).isNull();
+    assertThat(response.getLong("requestBytes")).isEqualTo(-1);
+    assertThat(response.getLong("responseBytes")).isEqualTo(5);
+    assertThat(response.getDuration("callDuration").toNanos()).isGreaterThan(0L);
+  }
+}
@@ -0,0 +1,101 @@
+package com.nightlynexus.retrofit.logging;
+
+import java.io.IOException;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Timeout;
+
+/**
+ * Completes every call immediately on the calling thread with the same outcome, so tests and
+ * benchmarks measure Retrofit and the logging wrapper rather than the network.
+ */
+public final class FakeCallFactory implements Call.Factory {
+  public static final MediaType PLAIN_TEXT = MediaType.get("text/plain; charset=utf-8");
+
+  public enum Outcome {
+    SUCCESS,
+    ERROR,
+    FAILURE
+  }
+
+  final Outcome outcome;
+  final byte[] body;
+
+  public FakeCallFactory(Outcome outcome, byte[] body) {
+    this.outcome = outcome;
+    this.body = body;
+  }
+
+  @Override public Call newCall(Request request) {
+    return new FakeCall(request);
+  }
+
+  final class FakeCall implements Call {
+    final Request request;
+    boolean executed;
+    boolean canceled;
+
+    FakeCall(Request request) {
+      this.request = request;
+    }
+
+    @Override public Request request() {
+      return request;
+    }
+
+    @Override public Response execute() throws IOException {
+      executed = true;
+      if (outcome == Outcome.FAILURE) {
+        throw new IOException("Fake failure.");
+      }
+      return new Response.Builder()
+          .request(request)
+          .protocol(Protocol.HTTP_1_1)
+          .code(outcome == Outcome.SUCCESS ? 200 : 500)
+          .message(outcome == Outcome.SUCCESS ? "OK" : "Internal Server Error")
+          .body(ResponseBody.create(body, PLAIN_TEXT))
+          .build();
+    }
+
+    @Override public void enqueue(Callback callback) {
+      Response response;
+      try {
+        response = execute();
+      } catch (IOException e) {
+        callback.onFailure(this, e);
+        return;
+      }
+      try {
+        callback.onResponse(this, response);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override public void cancel() {
+      canceled = true;
+    }
+
+    @Override public boolean isExecuted() {
+      return executed;
+    }
+
+    @Override public boolean isCanceled() {
+      return canceled;
+    }
+
+    @Override public Timeout timeout() {
+      return Timeout.NONE;
+    }
+
+    @SuppressWarnings("MethodDoesntCallSuperMethod")
+    @Override public Call clone() {
+      return new FakeCall(request);
+    }
+  }
+}